@@ -33,6 +33,15 @@ public class AgeModel {
         this(DEFAULT_ACCIDENT_RATE, DEFAULT_DEATH_RATE, DEFAULT_SCALE);
     }
 
+    /**
+     * Parameters
+     */
+    public double getAccidentRate() { return accident_rate; }
+
+    public double getDeathRate() { return death_rate; }
+
+    public double getAgeFactor() { return age_factor; }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(getClass().getName());
@@ -108,6 +117,178 @@ public class AgeModel {
         return -Math.log(RND.nextDouble())/rate;
     }
 
+    /**
+     * Poisson-distributed random variable.
+     *
+     * Multiplication of uniforms for small means, and Hormann's transformed
+     * rejection (PTRS) for large means.
+     *
+     * @param RND random number generator
+     * @param mean expected value
+     * @return Poisson(mean)
+     */
+    public static long randomPoisson(Random RND, double mean) {
+        if (mean <= 0.0) {
+            return 0L;
+        }
+        if (mean < 30.0) {
+            double limit = Math.exp(-mean);
+            double p = RND.nextDouble();
+            long k = 0;
+            while (p > limit) {
+                p *= RND.nextDouble();
+                k++;
+            }
+            return k;
+        }
+        double slam = Math.sqrt(mean);
+        double loglam = Math.log(mean);
+        double b = 0.931 + 2.53 * slam;
+        double a = -0.059 + 0.02483 * b;
+        double invalpha = 1.1239 + 1.1328 / (b - 3.4);
+        double vr = 0.9277 - 3.6224 / (b - 2.0);
+        while (true) {
+            double U = RND.nextDouble() - 0.5;
+            double V = RND.nextDouble();
+            double us = 0.5 - Math.abs(U);
+            long k = (long) Math.floor((2.0 * a / us + b) * U + mean + 0.43);
+            if (us >= 0.07 && V <= vr) {
+                return k;
+            }
+            if (k < 0 || (us < 0.013 && V > us)) {
+                continue;
+            }
+            if (Math.log(V) + Math.log(invalpha) - Math.log(a / (us * us) + b)
+                    <= -mean + k * loglam - logFactorial(k)) {
+                return k;
+            }
+        }
+    }
+
+    /**
+     * Binomially distributed random variable.
+     *
+     * Skips over geometric waiting times between successes for small means,
+     * and uses the normal approximation for large means.
+     *
+     * @param RND random number generator
+     * @param n number of trials
+     * @param p probability of success
+     * @return Binomial(n, p)
+     */
+    public static long randomBinomial(Random RND, long n, double p) {
+        if (n <= 0 || p <= 0.0) {
+            return 0L;
+        }
+        if (p >= 1.0) {
+            return n;
+        }
+        if (p > 0.5) {
+            return n - randomBinomial(RND, n, 1.0 - p);
+        }
+        double mean = n * p;
+        if (mean < 30.0) {
+            double logq = Math.log1p(-p);
+            long k = 0;
+            double trials = 0.0;
+            while (true) {
+                trials += Math.floor(Math.log(RND.nextDouble()) / logq) + 1.0;
+                if (trials > n) {
+                    return k;
+                }
+                k++;
+            }
+        }
+        long k = Math.round(mean + Math.sqrt(mean * (1.0 - p)) * RND.nextGaussian());
+        return Math.max(0L, Math.min(n, k));
+    }
+
+    /**
+     * Logarithm of k! (exact sum for small k, Stirling series otherwise)
+     */
+    static double logFactorial(long k) {
+        if (k < 16) {
+            double f = 0.0;
+            for (long i = 2; i <= k; i++) {
+                f += Math.log(i);
+            }
+            return f;
+        }
+        double x = k + 1.0;
+        return (x - 0.5) * Math.log(x) - x + 0.5 * Math.log(2.0 * Math.PI)
+                + 1.0 / (12.0 * x) - 1.0 / (360.0 * x * x * x);
+    }
+
+    /**
+     * Fills an array with exponentially distributed random variables.
+     *
+     * Uniforms are drawn first, then transformed in a separate loop, so that
+     * the logarithms are computed in one tight pass.
+     *
+     * @param RND random number generator
+     * @param rate inverse of the mean
+     * @param times array to fill with Exponential(rate) values
+     */
+    public static void randomWaitingTimes(Random RND, double rate, double[] times) {
+        for (int i = 0; i < times.length; i++) {
+            times[i] = RND.nextDouble();
+        }
+        for (int i = 0; i < times.length; i++) {
+            times[i] = -Math.log(times[i])/rate;
+        }
+    }
+
+    /**
+     * Cumulative hazard: the survival function is exp(-H(age)).
+     *
+     * @param age
+     * @return H(age)
+     */
+    public double getCumulativeHazard(double age) {
+        return accident_rate*age + death_rate*Math.expm1(age/death_rate)/age_factor;
+    }
+
+    /**
+     * Inverse of the cumulative hazard: the age at which H reaches the given value.
+     *
+     * @param hazard non-negative cumulative hazard
+     * @return age with getCumulativeHazard(age) == hazard
+     */
+    public double inverseCumulativeHazard(double hazard) {
+        // Each of the two terms alone gives an upper bound on the age
+        double age = death_rate * Math.log1p(hazard/death_rate * age_factor);
+        if (accident_rate > 0.0) {
+            age = Math.min(age, hazard/accident_rate);
+        }
+        // H is increasing and convex: Newton's method from above converges monotonically
+        for (int iter = 0; iter < 50; iter++) {
+            double h = getCumulativeHazard(age) - hazard;
+            double dh = accident_rate + Math.exp(age/death_rate)/age_factor;
+            double step = h/dh;
+            age -= step;
+            if (step <= 1e-12 * age)
+                break;
+        }
+        return age;
+    }
+
+    /**
+     * Fills an array with random lifespans.
+     *
+     * Draws the same values as successive calls to {@link #randomAge(Random)}.
+     *
+     * @param RND Psudorandom number generator for uniform[0,1]
+     * @param ages array to fill with Gomperz-Makeham values
+     */
+    public void randomAges(Random RND, double[] ages) {
+        for (int i = 0; i < ages.length; i++) {
+            double accidental_death = -Math.log(RND.nextDouble())/accident_rate;
+            double u = RND.nextDouble();
+            double age_death = death_rate * Math.log1p(-Math.log(u)/death_rate * age_factor);
+            ages[i] = Math.min(age_death, accidental_death);
+        }
+    }
+
     /**
      * A random value with the specified lifespan distribution.
      *
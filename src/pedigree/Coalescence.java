@@ -1,8 +1,9 @@
 package pedigree;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Class representing the ancestors.
@@ -12,20 +13,24 @@ import java.util.Set;
 public class Coalescence {
 
     private PQ<PA> currentPop; // current pedigree.Sim population
-    private Set<Integer> ancestors = new HashSet<>();
+    private Map<Long, Integer> ancestors = new HashMap<>(); // ancestor -> root of its line in the tree
 
     private CoalescencePoints cpMen;
     private CoalescencePoints cpWomen;
+    private CoalescentTree treeMen;
+    private CoalescentTree treeWomen;
+    private CoalescentTree tree; // tree under construction
     private int ancestralLines; // number of ancestral lines
 
     /**
-     * Inner class.
+     * Nested class.
      * Stores coalescence points as a time and number of ancestral lines.
      */
-    public class CoalescencePoints {
+    public static class CoalescencePoints {
 
         ArrayList<Integer> time;
         ArrayList<Integer> n; // number of ancestral lines
+        int initial; // number of lines in the current population
 
         /**
          * Constructors
@@ -51,16 +56,70 @@ public class Coalescence {
         public ArrayList<Integer> getTime() { return time; }
 
         public ArrayList<Integer> getN() { return n; }
+
+        public int getInitial() { return initial; }
+
+        /**
+         * Number of ancestral lines at a given time
+         * @param t time (between 0 and the end of the simulation)
+         * @return number of lines that did not coalesce after time t
+         */
+        public int linesAt(int t) {
+            int lines = initial;
+            for (int i = 0; i < time.size() - 1; i++) { // the last point only records the minimum
+                if (time.get(i) <= t) {
+                    break;
+                }
+                lines = n.get(i);
+            }
+            return lines;
+        }
     }
 
     /**
      * Constructor
      */
     public Coalescence(Simulation S) {
-        this.cpMen = new CoalescencePoints();
-        this.cpWomen = new CoalescencePoints();
-        cpMen = buildCoalescence(S.getMenArray());
-        cpWomen = buildCoalescence(S.getWomenArray());
+        this(S.getMenArray(), S.getWomenArray(), S.getStore());
+    }
+
+    private Coalescence(PA[] men, PA[] women, PedigreeStore store) {
+        if (store == null) {
+            this.cpMen = buildCoalescence(men);
+            this.treeMen = tree;
+            this.cpWomen = buildCoalescence(women);
+            this.treeWomen = tree;
+        } else {
+            this.cpMen = buildCoalescence(store, identifiers(men));
+            this.treeMen = tree;
+            this.cpWomen = buildCoalescence(store, identifiers(women));
+            this.treeWomen = tree;
+        }
+    }
+
+    /**
+     * Constructor for a pedigree kept in a store
+     *
+     * @param store pedigree of the simulation
+     * @param men identifiers of the living men
+     * @param women identifiers of the living women
+     */
+    public Coalescence(PedigreeStore store, long[] men, long[] women) {
+        this.cpMen = buildCoalescence(store, men);
+        this.treeMen = tree;
+        this.cpWomen = buildCoalescence(store, women);
+        this.treeWomen = tree;
+    }
+
+    public Coalescence(PA[] men, PA[] women) {
+        this(men, women, null);
+    }
+
+    public Coalescence(GenerationSimulation G) {
+        this.cpMen = buildCoalescence(G, true);
+        this.treeMen = tree;
+        this.cpWomen = buildCoalescence(G, false);
+        this.treeWomen = tree;
     }
 
     /**
@@ -72,6 +131,10 @@ public class Coalescence {
 
     public int getAncestralLines() { return ancestralLines; }
 
+    public CoalescentTree getTreeMen() { return treeMen; }
+
+    public CoalescentTree getTreeWomen() { return treeWomen; }
+
     /**
      * Registers a coalescence point.
      */
@@ -88,21 +151,23 @@ public class Coalescence {
         // Initialization
         CoalescencePoints cp = new CoalescencePoints();
         this.currentPop = new PQ<>(2, PQ.Type.MAX);
+        this.tree = new CoalescentTree(2 * pop.length);
 
         // Translate the sim population into ancestors
         for (int i = 0; i < pop.length; i++) {
             PA ancestor = pop[i];
-            ancestors.add(ancestor.getIndent());
+            ancestors.put(ancestor.getIndent(), tree.addLeaf(ancestor.getIndent(), ancestor.getBirthTime()));
             currentPop.insert(ancestor);
         }
         this.ancestralLines = ancestors.size();
+        cp.initial = ancestralLines;
 
         // Creates a max heap sorted by birth date
         currentPop.heapify(pop);
 
         while (!currentPop.isEmpty()) {
             PA youngest = new PA(currentPop.delete());
-            ancestors.remove(youngest.getIndent());
+            int line = ancestors.remove(youngest.getIndent());
 
             if (!youngest.isFounder()) {
                 PA parent;
@@ -115,14 +180,135 @@ public class Coalescence {
 
                 // Check if youngest's parent is in ancestors
                 // If so, add the coalescence point
-                if (ancestors.contains(parent.getIndent())) {
+                Integer other = ancestors.get(parent.getIndent());
+                if (other != null) {
                     coalescencePoint(youngest, cp);
+                    ancestors.put(parent.getIndent(), tree.merge(other, line, parent.getBirthTime()));
                 } else {
                     // If not, add youngest's parent in structures
                     currentPop.insert(parent);
-                    ancestors.add(parent.getIndent());
+                    ancestors.put(parent.getIndent(), line);
+                }
+            }
+        }
+        cp.add(0, ancestralLines); // Minimal number of lines reached
+        return cp;
+    }
+
+    /**
+     * Line in the store, ordered by birth date
+     */
+    private static class StoredLine implements Comparable<StoredLine> {
+
+        private final long id;
+        private final double birth;
+
+        StoredLine(long id, double birth) {
+            this.id = id;
+            this.birth = birth;
+        }
+
+        @Override
+        public int compareTo(StoredLine o) {
+            return Double.compare(birth, o.birth);
+        }
+    }
+
+    private static long[] identifiers(PA[] pop) {
+        long[] ids = new long[pop.length];
+        for (int i = 0; i < pop.length; i++) {
+            ids[i] = pop[i].getIndent();
+        }
+        return ids;
+    }
+
+    /**
+     * Builds the coalescence from a pedigree store: same algorithm, following the
+     * identifiers of the parents instead of references.
+     * @param store pedigree of the simulation
+     * @param pop identifiers of the current population (male or female)
+     */
+    private CoalescencePoints buildCoalescence(PedigreeStore store, long[] pop) {
+        CoalescencePoints cp = new CoalescencePoints();
+        PQ<StoredLine> lines = new PQ<>(2, PQ.Type.MAX);
+        this.tree = new CoalescentTree(2 * pop.length);
+        ancestors.clear();
+
+        for (long id : pop) {
+            double birth = store.getBirthTime(id);
+            ancestors.put(id, tree.addLeaf(id, birth));
+            lines.insert(new StoredLine(id, birth));
+        }
+        this.ancestralLines = ancestors.size();
+        cp.initial = ancestralLines;
+
+        while (!lines.isEmpty()) {
+            StoredLine youngest = lines.delete();
+            int line = ancestors.remove(youngest.id);
+            long parent = store.getParent(youngest.id, store.getSex(youngest.id));
+            if (parent < 0) {
+                continue; // founder
+            }
+            double parentBirth = store.getBirthTime(parent);
+            Integer other = ancestors.get(parent);
+            if (other != null) {
+                ancestralLines--;
+                cp.add((int) youngest.birth, ancestralLines);
+                ancestors.put(parent, tree.merge(other, line, parentBirth));
+            } else {
+                lines.insert(new StoredLine(parent, parentBirth));
+                ancestors.put(parent, line);
+            }
+        }
+        cp.add(0, ancestralLines); // Minimal number of lines reached
+        return cp;
+    }
+
+    /**
+     * Builds the coalescence over non-overlapping generations, one generation at a time.
+     * @param G simulated generations
+     * @param male paternal lines if true, maternal lines otherwise
+     */
+    private CoalescencePoints buildCoalescence(GenerationSimulation G, boolean male) {
+        CoalescencePoints cp = new CoalescencePoints();
+        int last = G.getGenerations() - 1;
+
+        // Lines start from the last generation
+        boolean[] sex = G.getMale(last);
+        int[] lines = new int[sex.length];
+        int nLines = 0;
+        for (int i = 0; i < sex.length; i++) {
+            if (sex[i] == male) lines[nLines++] = i;
+        }
+        this.ancestralLines = nLines;
+        cp.initial = ancestralLines;
+        this.tree = new CoalescentTree(2 * nLines);
+        int[] node = new int[sex.length]; // root in the tree of each line
+        for (int i = 0; i < nLines; i++) {
+            node[i] = tree.addLeaf(lines[i], G.getTime(last));
+        }
+
+        int[] seen = new int[sex.length]; // generation where a parent was last reached
+        int[] reached = new int[sex.length]; // line of each parent reached in this generation
+        Arrays.fill(seen, -1);
+        for (int g = last; g > 0; g--) {
+            int[] parent = male ? G.getFathers(g) : G.getMothers(g);
+            int born = (int) G.getTime(g);
+            int next = 0;
+            for (int i = 0; i < nLines; i++) {
+                int p = parent[lines[i]];
+                if (seen[p] == g) {
+                    ancestralLines--;
+                    cp.add(born, ancestralLines);
+                    node[reached[p]] = tree.merge(node[reached[p]], node[i], G.getTime(g - 1));
+                } else {
+                    seen[p] = g;
+                    reached[p] = next;
+                    node[next] = node[i];
+                    lines[next++] = p;
                 }
             }
+            nLines = next;
         }
         cp.add(0, ancestralLines); // Minimal number of lines reached
         return cp;
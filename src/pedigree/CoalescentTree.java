@@ -0,0 +1,281 @@
+package pedigree;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Genealogy of the paternal (or maternal) lines of a sample, stored in primitive arrays:
+ * node i has a parent index and a time. Leaves are the sampled Sims, at their birth time;
+ * internal nodes are the ancestors where two lines merge, at the birth time of that ancestor.
+ *
+ * Nodes are numbered in order of creation, leaves first, so that a parent always has a larger
+ * index than its children: all statistics are single passes over the arrays. Lines that reach
+ * the founders without merging are separate trees (roots have parent -1).
+ *
+ * Call with command-line arguments: <code> java ... pedigree.CoalescentTree n Tmax [newick_prefix] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class CoalescentTree {
+
+    private int[] parent;
+    private double[] time;
+    private long[] label; // identifier of the sampled Sim, -1 for internal nodes
+    private int size;
+    private int leaves;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int BINARY_MAGIC = 0x50445452; // "PDTR"
+
+    /**
+     * Constructors
+     */
+    public CoalescentTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public CoalescentTree(int capacity) {
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        this.parent = new int[capacity];
+        this.time = new double[capacity];
+        this.label = new long[capacity];
+    }
+
+    private int newNode(double t, long id) {
+        if (size == parent.length) {
+            int capacity = 2 * size;
+            parent = Arrays.copyOf(parent, capacity);
+            time = Arrays.copyOf(time, capacity);
+            label = Arrays.copyOf(label, capacity);
+        }
+        parent[size] = -1;
+        time[size] = t;
+        label[size] = id;
+        return size++;
+    }
+
+    /**
+     * Adds a sampled line. All leaves must be added before the first merge.
+     *
+     * @param id identifier of the sampled Sim
+     * @param t birth time of the sampled Sim
+     * @return index of the leaf
+     */
+    public int addLeaf(long id, double t) {
+        if (size != leaves) {
+            throw new IllegalStateException("Leaves must be added before internal nodes");
+        }
+        leaves++;
+        return newNode(t, id);
+    }
+
+    /**
+     * Merges two lines at their common ancestor.
+     *
+     * @param a root of the first line
+     * @param b root of the second line
+     * @param t birth time of the common ancestor
+     * @return index of the new node
+     */
+    public int merge(int a, int b, double t) {
+        if (parent[a] >= 0 || parent[b] >= 0 || a == b) {
+            throw new IllegalArgumentException("Lines " + a + " and " + b + " cannot be merged");
+        }
+        int v = newNode(t, -1);
+        parent[a] = v;
+        parent[b] = v;
+        return v;
+    }
+
+    /**
+     * Getters
+     */
+    public int getSize() { return size; }
+
+    public int getLeaves() { return leaves; }
+
+    public int getParent(int i) { return parent[i]; }
+
+    public double getTime(int i) { return time[i]; }
+
+    public long getLabel(int i) { return label[i]; }
+
+    public boolean isLeaf(int i) { return i < leaves; }
+
+    /**
+     * Number of separate trees (lines that did not coalesce)
+     */
+    public int getRoots() {
+        int roots = 0;
+        for (int i = 0; i < size; i++) {
+            if (parent[i] < 0) roots++;
+        }
+        return roots;
+    }
+
+    /**
+     * Sum of all branch lengths
+     */
+    public double totalBranchLength() {
+        double length = 0.0;
+        for (int i = 0; i < size; i++) {
+            if (parent[i] >= 0) length += time[i] - time[parent[i]];
+        }
+        return length;
+    }
+
+    /**
+     * Number of leaves below each node
+     */
+    public int[] leafCounts() {
+        int[] count = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (i < leaves) count[i]++;
+            if (parent[i] >= 0) count[parent[i]] += count[i];
+        }
+        return count;
+    }
+
+    /**
+     * Branch-length site-frequency spectrum: sfs[k] is the total length of the branches
+     * above exactly k sampled lines (1 <= k < leaves). Under infinite sites, the expected number
+     * of mutations carried by k sampled lines is proportional to sfs[k].
+     */
+    public double[] siteFrequencySpectrum() {
+        int[] count = leafCounts();
+        double[] sfs = new double[leaves + 1];
+        for (int i = 0; i < size; i++) {
+            if (parent[i] >= 0 && count[i] < leaves) {
+                sfs[count[i]] += time[i] - time[parent[i]];
+            }
+        }
+        return sfs;
+    }
+
+    /**
+     * Writes the trees in Newick format, one line per root, without recursion.
+     * Leaves are labelled sim followed by their identifier.
+     */
+    public void writeNewick(Writer out) throws IOException {
+        Writer w = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+
+        // Children lists: first child and next sibling
+        int[] child = new int[size];
+        int[] sibling = new int[size];
+        Arrays.fill(child, -1);
+        for (int i = size - 1; i >= 0; i--) {
+            if (parent[i] >= 0) {
+                sibling[i] = child[parent[i]];
+                child[parent[i]] = i;
+            }
+        }
+
+        int[] stack = new int[size];
+        int[] next = child.clone(); // next child to write
+        for (int root = 0; root < size; root++) {
+            if (parent[root] >= 0) continue;
+            int top = 0;
+            stack[top++] = root;
+            if (!isLeaf(root)) w.write('(');
+            while (top > 0) {
+                int v = stack[top - 1];
+                int c = next[v];
+                if (c >= 0) {
+                    next[v] = sibling[c];
+                    if (c != child[v]) w.write(',');
+                    if (!isLeaf(c)) w.write('(');
+                    stack[top++] = c;
+                } else {
+                    top--;
+                    if (isLeaf(v)) {
+                        w.write("sim" + label[v]);
+                    } else {
+                        w.write(')');
+                    }
+                    if (parent[v] >= 0) {
+                        w.write(':' + Double.toString(time[v] - time[parent[v]]));
+                    }
+                }
+            }
+            w.write(";\n");
+        }
+        w.flush();
+    }
+
+    /**
+     * Writes the arrays: magic number, size, leaves, then parent, time and label of each node.
+     */
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(size);
+        out.writeInt(leaves);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(parent[i]);
+            out.writeDouble(time[i]);
+            out.writeLong(label[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a tree written by {@link #writeBinary}.
+     */
+    public static CoalescentTree readBinary(DataInputStream in) throws IOException {
+        if (in.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not a coalescent tree");
+        }
+        int size = in.readInt();
+        CoalescentTree T = new CoalescentTree(size);
+        T.size = size;
+        T.leaves = in.readInt();
+        for (int i = 0; i < size; i++) {
+            T.parent[i] = in.readInt();
+            T.time[i] = in.readDouble();
+            T.label[i] = in.readLong();
+        }
+        return T;
+    }
+
+    private static void printStatistics(String name, CoalescentTree T) {
+        System.out.println(name + ": " + T.getLeaves() + " lines, " + T.getRoots() + " roots, "
+                + "total branch length " + T.totalBranchLength());
+        double[] sfs = T.siteFrequencySpectrum();
+        StringBuilder line = new StringBuilder("  sfs");
+        for (int k = 1; k < sfs.length - 1 && k <= 10; k++) {
+            line.append("\t").append(k).append(": ").append(String.format("%.1f", sfs[k]));
+        }
+        System.out.println(line);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.CoalescentTree n Tmax [newick_prefix]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        Simulation S = new Simulation();
+        S.simulate(n, Tmax);
+        Coalescence C = new Coalescence(S);
+
+        printStatistics("paternal", C.getTreeMen());
+        printStatistics("maternal", C.getTreeWomen());
+
+        if (args.length > 2) {
+            try (Writer out = new FileWriter(args[2] + "-men.nwk")) {
+                C.getTreeMen().writeNewick(out);
+            }
+            try (Writer out = new FileWriter(args[2] + "-women.nwk")) {
+                C.getTreeWomen().writeNewick(out);
+            }
+        }
+    }
+}
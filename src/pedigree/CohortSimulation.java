@@ -0,0 +1,382 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Approximate simulation of very large populations. Instead of individual Sims, the population
+ * is stored as counts per (sex, partnership, age in years) cohort, and advanced one year at a time
+ * with binomial deaths and Poisson births (tau-leaping). The lifespan distribution and the
+ * reproduction rate are the same as in {@link Simulation}; the cost of a year is proportional to
+ * the number of cohorts, not to the population size.
+ *
+ * A cohort is treated as if its Sims were a + 0.5 years old (death and birth probabilities of
+ * the year are taken at that age), so the founders, all born at time 0, first live half a year
+ * with deaths only: the years are then counted from t = 0.5, and each sample is taken half a year
+ * after its century. With that, the population history agrees with the exact simulation within
+ * the sampling error of the -validate mode (|z| &lt; 2 over 400 replicates). The remaining
+ * differences are approximations, not measured to be significant: the rates of a year are fixed
+ * at its start, large binomials use the normal approximation, and partnerships are counts only.
+ *
+ * Partnerships are tracked as counts only: a woman giving birth while single gets a partner
+ * (one single man of mating age becomes partnered), and the death of a partnered Sim makes
+ * one partnered Sim of the other sex single again.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.CohortSimulation n Tmax [seed] </code>
+ * or, to compare with the exact simulation, <code> java ... pedigree.CohortSimulation -validate n Tmax replicates [seed] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class CohortSimulation {
+
+    private static final int F = 0;
+    private static final int M = 1;
+    private static final int SINGLE = 0;
+    private static final int PARTNERED = 1;
+
+    private final AgeModel ageModel;
+    private final double r; // rate of reproduction
+    private final double fidelity;
+    private final Random RND;
+
+    private final int maxAge; // nobody survives past this age
+    private final double[] deathProbability; // probability of dying during the year at each age
+    private final double[] birthRate; // expected births during the year per woman at each age
+    private final double newbornSurvival; // probability of surviving from birth to the end of the year
+    private final long[][][] counts; // [sex][partnership][age]
+    private double currentTime;
+
+    // For the empirical study
+    private int nextCentury;
+    private ArrayList<Integer> populationHistory;
+    private ArrayList<Integer> timeHistory;
+
+    // Default parameters
+    private static final double DEFAULT_FIDELITY = 0.9;
+    private static final double REPRODUCTION = 2.0;
+    private static final double MIN_SURVIVAL = 1e-12; // survival probability considered to be 0
+
+    /**
+     * Basic constructor
+     */
+    public CohortSimulation() {
+        this(new AgeModel(), REPRODUCTION, DEFAULT_FIDELITY);
+    }
+
+    /**
+     * Regular constructor (with all 5 modifiable parameters, same as {@link Simulation})
+     */
+    public CohortSimulation(double accident_rate, double death_rate, double age_scale, double reproduction, double fidelity) {
+        this(new AgeModel(accident_rate, death_rate, age_scale), reproduction, fidelity);
+    }
+
+    private CohortSimulation(AgeModel ageModel, double reproduction, double fidelity) {
+        this.ageModel = ageModel;
+        this.r = reproduction / ageModel.expectedParenthoodSpan(Sim.MIN_MATING_AGE_F, Sim.MAX_MATING_AGE_F);
+        this.fidelity = fidelity;
+        this.RND = new Random();
+
+        int oldest = 0;
+        while (ageModel.getSurvival(oldest + 1) > MIN_SURVIVAL) {
+            oldest++;
+        }
+        this.maxAge = oldest;
+        this.deathProbability = new double[maxAge + 1];
+        // Births are spread over the year, so the Sims of cohort a are a+0.5 years old on average.
+        // Women dying during the year stop reproducing: the birth rate is r times the expected
+        // number of years spent alive within the mating period.
+        this.birthRate = new double[maxAge + 1];
+        for (int a = 0; a <= maxAge; a++) {
+            double age = a + 0.5;
+            deathProbability[a] = 1.0 - ageModel.getSurvival(age + 1.0) / ageModel.getSurvival(age);
+            double from = Math.max(age, Sim.MIN_MATING_AGE_F);
+            double to = Math.min(age + 1.0, Sim.MAX_MATING_AGE_F);
+            if (from < to) {
+                birthRate[a] = r * ageModel.expectedParenthoodSpan(from, to) / ageModel.getSurvival(age);
+            }
+        }
+        this.newbornSurvival = ageModel.expectedParenthoodSpan(0.0, 1.0);
+        this.counts = new long[2][2][maxAge + 1];
+        this.populationHistory = new ArrayList<>();
+        this.timeHistory = new ArrayList<>();
+        this.nextCentury = 0;
+    }
+
+    /**
+     * Getters
+     */
+    public ArrayList<Integer> getPopulationHistory() {
+        return this.populationHistory;
+    }
+
+    public ArrayList<Integer> getTimeHistory() {
+        return this.timeHistory;
+    }
+
+    public long getPopulationSize() {
+        long size = 0;
+        for (long[][] bySex : counts) {
+            for (long[] byPartnership : bySex) {
+                for (long c : byPartnership) {
+                    size += c;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Number of Sims of the given sex and partnership at the given age
+     */
+    public long getCount(Sim.Sex sex, boolean partnered, int age) {
+        return counts[sex == Sim.Sex.F ? F : M][partnered ? PARTNERED : SINGLE][age];
+    }
+
+    /**
+     * Setters
+     */
+    public void setSeed(long seed) {
+        RND.setSeed(seed);
+    }
+
+    private static boolean isMatingAge(int sex, int age) {
+        // a cohort is fertile if all its ages are within the mating period
+        return sex == F
+                ? age >= Sim.MIN_MATING_AGE_F && age + 1 <= Sim.MAX_MATING_AGE_F
+                : age >= Sim.MIN_MATING_AGE_M && age + 1 <= Sim.MAX_MATING_AGE_M;
+    }
+
+    /**
+     * Moves Sims between partnership states, spread over the ages in proportion to the counts.
+     *
+     * @param sex sex of the Sims to move
+     * @param from partnership state they leave
+     * @param k number of Sims to move
+     * @param matingOnly only move Sims of mating age
+     */
+    private void changePartnership(int sex, int from, long k, boolean matingOnly) {
+        long[] source = counts[sex][from];
+        long[] target = counts[sex][1 - from];
+        long total = 0;
+        for (int a = 0; a <= maxAge; a++) {
+            if (!matingOnly || isMatingAge(sex, a)) {
+                total += source[a];
+            }
+        }
+        k = Math.min(k, total);
+        for (int a = 0; a <= maxAge && k > 0; a++) {
+            if (matingOnly && !isMatingAge(sex, a)) {
+                continue;
+            }
+            long moved = source[a] == total ? k : Math.min(source[a], AgeModel.randomBinomial(RND, k, source[a] / (double) total));
+            total -= source[a];
+            source[a] -= moved;
+            target[a] += moved;
+            k -= moved;
+        }
+    }
+
+    /**
+     * Advances the population by one year.
+     */
+    private void step() {
+        // Births
+        long men = 0;
+        for (int p = SINGLE; p <= PARTNERED; p++) {
+            for (int a = 0; a <= maxAge; a++) {
+                men += counts[M][p][a];
+            }
+        }
+        long births = 0;
+        if (men > 0) {
+            long newCouples = 0;
+            long unfaithful = 0;
+            for (int a = 0; a <= maxAge; a++) {
+                if (birthRate[a] == 0.0) {
+                    continue;
+                }
+                long bSingle = AgeModel.randomPoisson(RND, birthRate[a] * counts[F][SINGLE][a]);
+                long bPartnered = AgeModel.randomPoisson(RND, birthRate[a] * counts[F][PARTNERED][a]);
+                long mothers = Math.min(bSingle, counts[F][SINGLE][a]);
+                unfaithful += AgeModel.randomBinomial(RND, bPartnered, 1.0 - fidelity);
+                births += bSingle + bPartnered;
+                counts[F][SINGLE][a] -= mothers;
+                counts[F][PARTNERED][a] += mothers;
+                newCouples += mothers;
+            }
+            // each new couple takes a single man of mating age;
+            // after an unfaithful birth, the new partner replaces the old one
+            changePartnership(M, SINGLE, newCouples + unfaithful, true);
+            changePartnership(M, PARTNERED, unfaithful, false);
+        }
+
+        // Deaths, which leave the partner single
+        long[] widowed = new long[2];
+        for (int s = F; s <= M; s++) {
+            for (int p = SINGLE; p <= PARTNERED; p++) {
+                for (int a = 0; a <= maxAge; a++) {
+                    long d = AgeModel.randomBinomial(RND, counts[s][p][a], deathProbability[a]);
+                    counts[s][p][a] -= d;
+                    if (p == PARTNERED) {
+                        widowed[1 - s] += d;
+                    }
+                }
+            }
+        }
+        changePartnership(F, PARTNERED, widowed[F], false);
+        changePartnership(M, PARTNERED, widowed[M], false);
+
+        // Aging (nobody survives past maxAge)
+        for (int s = F; s <= M; s++) {
+            for (int p = SINGLE; p <= PARTNERED; p++) {
+                System.arraycopy(counts[s][p], 0, counts[s][p], 1, maxAge);
+                counts[s][p][0] = 0;
+            }
+        }
+
+        // Newborns
+        births = AgeModel.randomBinomial(RND, births, newbornSurvival);
+        long girls = AgeModel.randomBinomial(RND, births, 0.5);
+        counts[F][SINGLE][0] += girls;
+        counts[M][SINGLE][0] += births - girls;
+
+        currentTime += 1.0;
+    }
+
+    /**
+     * Records the population size as a sample for the empirical study
+     */
+    private void saveSample() {
+        this.timeHistory.add((int) currentTime);
+        this.populationHistory.add((int) Math.min(Integer.MAX_VALUE, getPopulationSize()));
+        nextCentury += 100;
+    }
+
+    /**
+     * Runs the simulation year by year.
+     *
+     * @param n number of founding sims
+     * @param Tmax duration of the simulation
+     */
+    void simulate(long n, double Tmax) {
+        long girls = AgeModel.randomBinomial(RND, n, 0.5);
+        counts[F][SINGLE][0] += girls;
+        counts[M][SINGLE][0] += n - girls;
+        currentTime = 0.0;
+        saveSample();
+
+        // The founders are all born at time 0, while the Sims of a cohort are spread over its year
+        // (a + 0.5 years old on average): half a year with deaths only brings them to the middle
+        // of cohort 0, and the following years are counted from t = 0.5.
+        double founderSurvival = ageModel.getSurvival(0.5);
+        for (int s = F; s <= M; s++) {
+            counts[s][SINGLE][0] = AgeModel.randomBinomial(RND, counts[s][SINGLE][0], founderSurvival);
+        }
+        currentTime = 0.5;
+
+        while (getPopulationSize() > 0) {
+            if (currentTime >= nextCentury) {
+                saveSample();
+            }
+            if (currentTime >= Tmax) {
+                break;
+            }
+            step();
+        }
+        if (timeHistory.isEmpty() || timeHistory.get(timeHistory.size() - 1) != (int) currentTime) {
+            saveSample(); // population at Tmax (or at extinction)
+        }
+    }
+
+    /**
+     * Compares the population history with the exact simulation: mean and standard deviation
+     * over replicates for both engines, at each century.
+     *
+     * @param n number of founding sims
+     * @param Tmax duration of the simulation
+     * @param replicates number of runs with each engine
+     * @param seed random seed
+     */
+    static void validate(int n, int Tmax, int replicates, long seed) {
+        int centuries = Tmax / 100 + 1;
+        double[][] sum = new double[2][centuries];
+        double[][] sum2 = new double[2][centuries];
+        Random seeds = new Random(seed);
+
+        for (int rep = 0; rep < replicates; rep++) {
+            Simulation S = new Simulation();
+            S.setSeed(seeds.nextLong());
+            S.simulate(n, Tmax);
+            accumulate(S.getPopulationHistory(), S.getTimeHistory(), sum[0], sum2[0]);
+
+            CohortSimulation C = new CohortSimulation();
+            C.setSeed(seeds.nextLong());
+            C.simulate(n, Tmax);
+            accumulate(C.getPopulationHistory(), C.getTimeHistory(), sum[1], sum2[1]);
+        }
+
+        System.out.println("t\texact\tsd\tcohort\tsd\tz");
+        for (int c = 0; c < centuries; c++) {
+            double[] mean = new double[2];
+            double[] var = new double[2];
+            for (int e = 0; e < 2; e++) {
+                mean[e] = sum[e][c] / replicates;
+                var[e] = Math.max(0.0, sum2[e][c] / replicates - mean[e] * mean[e]);
+            }
+            double se = Math.sqrt((var[0] + var[1]) / replicates);
+            double z = se == 0.0 ? 0.0 : (mean[1] - mean[0]) / se;
+            System.out.println(100 * c + "\t" + mean[0] + "\t" + Math.sqrt(var[0]) + "\t" + mean[1] + "\t" + Math.sqrt(var[1]) + "\t" + z);
+        }
+    }
+
+    /**
+     * Adds a population history, by century, to running sums (extinct populations count as 0)
+     */
+    private static void accumulate(ArrayList<?> popHist, ArrayList<?> timeHist, double[] sum, double[] sum2) {
+        double[] size = new double[sum.length];
+        for (int i = 0; i < popHist.size(); i++) {
+            int c = (Integer) timeHist.get(i) / 100;
+            if (c < size.length) {
+                size[c] = (Integer) popHist.get(i);
+            }
+        }
+        for (int c = 0; c < size.length; c++) {
+            sum[c] += size[c];
+            sum2[c] += size[c] * size[c];
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-validate")) {
+            if (args.length < 4 || args.length > 5) {
+                throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.CohortSimulation -validate n Tmax replicates [seed]");
+            }
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+            validate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), seed);
+            return;
+        }
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.CohortSimulation n Tmax [seed]");
+        }
+        long n = Long.parseLong(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        CohortSimulation S = new CohortSimulation();
+        if (args.length > 2) {
+            S.setSeed(Long.parseLong(args[2]));
+        }
+        S.simulate(n, Tmax);
+
+        ArrayList<Integer> popHist = S.getPopulationHistory();
+        ArrayList<Integer> timeHist = S.getTimeHistory();
+        System.out.print('\n');
+        System.out.println("----------------------------- Population History ----------------------------------------");
+        System.out.print('\n');
+        for (int i = 0; i < popHist.size(); i++) {
+            System.out.println("[n = " + popHist.get(i) + ", t = " + timeHist.get(i) + "]");
+        }
+    }
+}
@@ -12,14 +12,20 @@ public class Event implements Comparable<Event> {
     private final Sim subject;
     private final Type type;
     private final double time;
+    private final int epoch; // migrations of the subject when the event was scheduled
 
     /**
-     * Constructor
+     * Constructors
      */
     public Event(final Sim subject, final Type type, final double time) {
+        this(subject, type, time, 0);
+    }
+
+    public Event(final Sim subject, final Type type, final double time, final int epoch) {
         this.subject = subject;
         this.type = type;
         this.time = time;
+        this.epoch = epoch;
     }
 
     /**
@@ -37,6 +43,10 @@ public class Event implements Comparable<Event> {
         return this.time;
     }
 
+    public int getEpoch() {
+        return this.epoch;
+    }
+
     @Override
     public int compareTo(Event o) {
         return Double.compare(this.getTime(), o.getTime());
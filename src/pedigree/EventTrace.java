@@ -0,0 +1,114 @@
+package pedigree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only binary trace of a simulation: every reproduction (with the chosen father),
+ * birth, death and sample, in the order they are treated. Records go through a direct buffer
+ * written to a file channel when full. The trace is read back by {@link TraceReplay}.
+ *
+ * Record formats (after a header of two ints: magic number and version):
+ * <ul>
+ *     <li>reproduction: 'R', time, mother id, father id, child id</li>
+ *     <li>birth: 'B', birth time, id, death time, sex (0 for F, 1 for M)</li>
+ *     <li>death: 'D', time, id</li>
+ *     <li>sample: 'S', time (int), population size (int)</li>
+ * </ul>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class EventTrace implements SimulationListener, AutoCloseable {
+
+    static final int MAGIC = 0x50445453; // "PDTS"
+    static final int VERSION = 1;
+    static final byte REPRODUCTION = 'R';
+    static final byte BIRTH = 'B';
+    static final byte DEATH = 'D';
+    static final byte SAMPLE = 'S';
+    static final int MAX_RECORD = 33; // bytes
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long records;
+
+    /**
+     * Constructor: creates (or overwrites) the trace file
+     *
+     * @param file trace file
+     */
+    public EventTrace(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * Getters
+     */
+    public long getRecords() { return records; }
+
+    /**
+     * Makes room for one record, writing the buffer if needed
+     */
+    private ByteBuffer record(byte kind) {
+        if (buffer.remaining() < MAX_RECORD) {
+            try {
+                drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write the event trace", e);
+            }
+        }
+        records++;
+        return buffer.put(kind);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void reproduction(Sim mother, Sim father, Sim child) {
+        record(REPRODUCTION).putDouble(child.getBirthTime())
+                .putLong(mother.getIndent()).putLong(father.getIndent()).putLong(child.getIndent());
+    }
+
+    @Override
+    public void birth(Sim x) {
+        record(BIRTH).putDouble(x.getBirthTime()).putLong(x.getIndent()).putDouble(x.getDeathTime())
+                .put((byte) (x.isMale() ? 1 : 0));
+    }
+
+    @Override
+    public void death(Sim x, double time) {
+        record(DEATH).putDouble(time).putLong(x.getIndent());
+    }
+
+    @Override
+    public void sample(int time, int size) {
+        record(SAMPLE).putInt(time).putInt(size);
+    }
+
+    /**
+     * Writes the remaining records and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
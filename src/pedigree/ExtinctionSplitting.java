@@ -0,0 +1,201 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Estimates the (small) probability that a founder population goes extinct before Tmax, by
+ * multilevel splitting instead of independent replicates.
+ *
+ * The population sizes l_1 &gt; l_2 &gt; ... &gt; l_m = 0 are levels that the trajectories must go down
+ * through before extinction. At each level, a fixed number of runs (the effort) start from copies
+ * of the states where earlier runs entered that level (see {@link Simulation#fork}), each with its
+ * own seed, and continue until the population falls to the next level or Tmax is reached. The
+ * fraction p_k of runs reaching the next level estimates the conditional probability of going down
+ * one more level, and the probability of extinction is the product of the p_k. Its confidence
+ * interval comes from the variance of log(p) by the delta method, sum (1 - p_k) / (effort p_k),
+ * treating the levels as independent. With a last level m &gt; 0 instead of 0, it estimates the
+ * probability that the population falls to m before Tmax.
+ *
+ * Call with command-line arguments:
+ * <code> java ... pedigree.ExtinctionSplitting n Tmax effort [seed [level_1 ... level_m]] </code>
+ * (the levels default to n/2, n/4, ..., 1, 0).
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class ExtinctionSplitting {
+
+    /**
+     * Estimated probability, with its confidence interval
+     */
+    public static class Estimate {
+
+        private final double probability;
+        private final double lower;
+        private final double upper;
+        private final double[] levelProbabilities;
+        private final long events;
+        private final int runs;
+
+        Estimate(double[] levelProbabilities, int effort, long events, int runs) {
+            double p = 1.0;
+            double variance = 0.0; // of log(p)
+            for (double pk : levelProbabilities) {
+                p *= pk;
+                variance += pk > 0 ? (1 - pk) / (effort * pk) : Double.POSITIVE_INFINITY;
+            }
+            double half = Z * Math.sqrt(variance);
+            this.probability = p;
+            this.lower = p > 0 ? p * Math.exp(-half) : 0.0;
+            this.upper = p > 0 ? Math.min(1.0, p * Math.exp(half)) : Double.NaN;
+            this.levelProbabilities = levelProbabilities;
+            this.events = events;
+            this.runs = runs;
+        }
+
+        /**
+         * Getters
+         */
+        public double getProbability() { return probability; }
+
+        public double getLower() { return lower; }
+
+        public double getUpper() { return upper; }
+
+        public double[] getLevelProbabilities() { return levelProbabilities; }
+
+        public long getEvents() { return events; }
+
+        public int getRuns() { return runs; }
+    }
+
+    private final int n;
+    private final double Tmax;
+    private final int[] levels;
+    private final int effort;
+    private final double accident_rate;
+    private final double death_rate;
+    private final double age_scale;
+    private final double reproduction;
+    private final double fidelity;
+
+    private static final double Z = 1.96; // 95% confidence
+
+    /**
+     * Constructors
+     *
+     * @param n number of founders
+     * @param Tmax duration of the simulation
+     * @param levels decreasing population sizes below n, the last one being the rare event (0 for extinction)
+     * @param effort number of runs per level
+     */
+    public ExtinctionSplitting(int n, double Tmax, int[] levels, int effort, double accident_rate, double death_rate,
+                               double age_scale, double reproduction, double fidelity) {
+        if (levels.length == 0 || levels[0] >= n || levels[levels.length - 1] < 0) {
+            throw new IllegalArgumentException("Illegal levels. Must be between 0 and n - 1.");
+        }
+        for (int k = 1; k < levels.length; k++) {
+            if (levels[k] >= levels[k - 1]) {
+                throw new IllegalArgumentException("Illegal levels. Must be decreasing.");
+            }
+        }
+        if (effort <= 0) {
+            throw new IllegalArgumentException("Illegal effort. Must be a positive integer.");
+        }
+        this.n = n;
+        this.Tmax = Tmax;
+        this.levels = levels.clone();
+        this.effort = effort;
+        this.accident_rate = accident_rate;
+        this.death_rate = death_rate;
+        this.age_scale = age_scale;
+        this.reproduction = reproduction;
+        this.fidelity = fidelity;
+    }
+
+    public ExtinctionSplitting(int n, double Tmax, int[] levels, int effort) {
+        this(n, Tmax, levels, effort, 0.01, 12.5, 100.0, 2.0, 0.9);
+    }
+
+    /**
+     * Levels n/2, n/4, ..., 1, 0
+     */
+    public static int[] defaultLevels(int n) {
+        int[] levels = new int[32];
+        int m = 0;
+        for (int l = n / 2; l >= 1; l /= 2) {
+            levels[m++] = l;
+        }
+        levels[m++] = 0;
+        return Arrays.copyOf(levels, m);
+    }
+
+    /**
+     * Runs the splitting stages.
+     *
+     * @param seed random seed of the whole estimation
+     * @return estimated probability of reaching the last level before Tmax
+     */
+    public Estimate estimate(long seed) {
+        Random seeds = new Random(seed);
+        double[] p = new double[levels.length];
+        long events = 0;
+        int runs = 0;
+
+        ArrayList<Simulation> entrances = new ArrayList<>(); // states that entered the current level
+        for (int k = 0; k < levels.length; k++) {
+            ArrayList<Simulation> hits = new ArrayList<>();
+            for (int run = 0; run < effort; run++) {
+                Simulation S;
+                if (k == 0) {
+                    S = new Simulation(accident_rate, death_rate, age_scale, reproduction, fidelity);
+                    S.setSeed(seeds.nextLong());
+                    S.generateFounders(n);
+                    S.advance(0); // births of the founders
+                } else {
+                    S = entrances.get(seeds.nextInt(entrances.size())).fork(seeds.nextLong());
+                }
+                long before = S.getEventCount();
+                int size = S.advanceWhile(Tmax, levels[k], Integer.MAX_VALUE);
+                events += S.getEventCount() - before;
+                runs++;
+                if (size <= levels[k]) {
+                    hits.add(S);
+                }
+            }
+            p[k] = (double) hits.size() / effort;
+            if (hits.isEmpty()) {
+                Arrays.fill(p, k + 1, p.length, 0.0);
+                break;
+            }
+            entrances = hits;
+        }
+        return new Estimate(p, effort, events, runs);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.ExtinctionSplitting n Tmax effort [seed [level_1 ... level_m]]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int effort = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        int[] levels = args.length > 4 ? new int[args.length - 4] : defaultLevels(n);
+        for (int k = 4; k < args.length; k++) {
+            levels[k - 4] = Integer.parseInt(args[k]);
+        }
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        Estimate E = new ExtinctionSplitting(n, Tmax, levels, effort).estimate(seed);
+        for (int k = 0; k < levels.length; k++) {
+            System.out.println(String.format("[level = %d, p = %.4f]", levels[k], E.getLevelProbabilities()[k]));
+        }
+        System.out.println(String.format("P(population <= %d before t = %d) = %.3e, 95%% CI [%.3e, %.3e]",
+                levels[levels.length - 1], Tmax, E.getProbability(), E.getLower(), E.getUpper()));
+        System.out.println(E.getRuns() + " runs, " + E.getEvents() + " events");
+    }
+}
@@ -0,0 +1,294 @@
+package pedigree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Biparental genealogy of a sample (usually the living population): for every ancestor,
+ * the set of sampled descendants, following both mothers and fathers.
+ *
+ * Descendant sets are bitsets (one bit per sampled Sim) propagated from children to both parents,
+ * youngest first, so that each ancestor is visited once. The bitset words are split between threads:
+ * each thread propagates its own columns through the whole pedigree, without synchronization, in its
+ * own block of memory, so that two threads never write to the same cache lines.
+ * When the matrix does not fit in the memory budget, the columns are processed in slabs, which are
+ * memory-mapped from a temporary file if a spill directory is given.
+ *
+ * Needs the parent references: not usable with a {@link PedigreeStore}.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.GenealogicalAncestry n Tmax [spill_dir] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class GenealogicalAncestry {
+
+    private final int sampleSize;
+    private final int nAncestors; // including the sample itself
+    private final double[] birth; // ancestors sorted by decreasing birth time
+    private final int[] mother; // index of the mother, -1 for founders
+    private final int[] father;
+    private final int[] descendants; // number of sampled descendants of each ancestor
+    private final int[] sampleRow; // index of the j-th sampled Sim among the ancestors
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private File spillDirectory; // null: slabs stay on the heap
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private static final long DEFAULT_MEMORY_BUDGET = 256L << 20; // bytes for the bitsets
+    private static final long MAX_MAPPING = Integer.MAX_VALUE; // bytes per memory-mapped slab
+
+    /**
+     * Constructors: collects all ancestors of the sample.
+     *
+     * @param sample sampled Sims
+     */
+    public GenealogicalAncestry(Sim[] sample) {
+        this.sampleSize = sample.length;
+
+        // Ancestors by identifier (iterative traversal: pedigrees are deep)
+        Map<Long, Sim> ancestors = new HashMap<>();
+        List<Sim> stack = new ArrayList<>();
+        for (Sim x : sample) {
+            if (ancestors.putIfAbsent(x.getIndent(), x) == null) {
+                stack.add(x);
+            }
+        }
+        while (!stack.isEmpty()) {
+            Sim x = stack.remove(stack.size() - 1);
+            for (Sim p : new Sim[]{x.getMother(), x.getFather()}) {
+                if (p != null && ancestors.putIfAbsent(p.getIndent(), p) == null) {
+                    stack.add(p);
+                }
+            }
+        }
+
+        // Youngest first: children come before their parents
+        Sim[] order = ancestors.values().toArray(new Sim[0]);
+        Arrays.sort(order, (a, b) -> Double.compare(b.getBirthTime(), a.getBirthTime()));
+        Map<Long, Integer> index = new HashMap<>();
+
+        this.nAncestors = order.length;
+        this.birth = new double[nAncestors];
+        this.mother = new int[nAncestors];
+        this.father = new int[nAncestors];
+        this.descendants = new int[nAncestors];
+        for (int i = 0; i < nAncestors; i++) {
+            index.put(order[i].getIndent(), i);
+            birth[i] = order[i].getBirthTime();
+        }
+        for (int i = 0; i < nAncestors; i++) {
+            Sim m = order[i].getMother();
+            Sim f = order[i].getFather();
+            mother[i] = m == null ? -1 : index.get(m.getIndent());
+            father[i] = f == null ? -1 : index.get(f.getIndent());
+        }
+        this.sampleRow = new int[sampleSize];
+        for (int j = 0; j < sampleSize; j++) {
+            sampleRow[j] = index.get(sample[j].getIndent());
+        }
+    }
+
+    /**
+     * @param S simulation whose living population is the sample
+     */
+    public GenealogicalAncestry(Simulation S) {
+        this(livingPopulation(S));
+    }
+
+    private static Sim[] livingPopulation(Simulation S) {
+        if (S.getStore() != null) {
+            throw new IllegalStateException("The genealogy follows the parents of the Sims: not usable with a pedigree store");
+        }
+        PA[] men = S.getMenArray();
+        PA[] women = S.getWomenArray();
+        Sim[] sample = new Sim[men.length + women.length];
+        System.arraycopy(men, 0, sample, 0, men.length);
+        System.arraycopy(women, 0, sample, men.length, women.length);
+        return sample;
+    }
+
+    /**
+     * Setters
+     */
+    public void setMemoryBudget(long bytes) { this.memoryBudget = bytes; }
+
+    public void setSpillDirectory(File dir) { this.spillDirectory = dir; }
+
+    public void setThreads(int threads) { this.threads = Math.max(1, threads); }
+
+    /**
+     * Getters
+     */
+    public int getSampleSize() { return sampleSize; }
+
+    public int getAncestors() { return nAncestors; }
+
+    public double getBirthTime(int i) { return birth[i]; }
+
+    public int getDescendants(int i) { return descendants[i]; }
+
+    /**
+     * Number of ancestors of the whole sample
+     */
+    public int getUniversalAncestors() {
+        int count = 0;
+        for (int i = 0; i < nAncestors; i++) {
+            if (descendants[i] == sampleSize) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Birth time of the most recent common ancestor of the whole sample
+     *
+     * @return NaN if the sample has no common ancestor
+     */
+    public double getCommonAncestorTime() {
+        double t = Double.NaN;
+        for (int i = 0; i < nAncestors; i++) {
+            if (descendants[i] == sampleSize && !(birth[i] <= t)) {
+                t = birth[i];
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Identical ancestors point: every Sim born before this time is an ancestor either of the whole
+     * sample or of nobody in it.
+     *
+     * @return NaN if the point is not reached (some founders are ancestors of only part of the sample)
+     */
+    public double getIdenticalAncestorsTime() {
+        double t = Double.POSITIVE_INFINITY;
+        boolean foundersPartial = false;
+        for (int i = 0; i < nAncestors; i++) {
+            if (descendants[i] < sampleSize) {
+                t = Math.min(t, birth[i]);
+                foundersPartial |= mother[i] < 0 && father[i] < 0;
+            }
+        }
+        return foundersPartial ? Double.NaN : t;
+    }
+
+    /**
+     * Computes the number of sampled descendants of every ancestor.
+     */
+    public void compute() throws IOException, InterruptedException, ExecutionException {
+        int words = (sampleSize + 63) / 64;
+        long rowBytes = 8L * nAncestors;
+        long limit = spillDirectory == null ? Math.min(memoryBudget, MAX_MAPPING) : MAX_MAPPING;
+        int slabWords = (int) Math.max(1, Math.min(words, limit / rowBytes));
+
+        Arrays.fill(descendants, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int from = 0; from < words; from += slabWords) {
+                int to = Math.min(words, from + slabWords);
+                if (spillDirectory == null) {
+                    computeSlab(LongBuffer.allocate(nAncestors * (to - from)), from, to, executor);
+                } else {
+                    File file = File.createTempFile("ancestry", ".bits", spillDirectory);
+                    file.deleteOnExit();
+                    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                         FileChannel channel = raf.getChannel()) {
+                        LongBuffer slab = channel.map(FileChannel.MapMode.READ_WRITE, 0, rowBytes * (to - from)).asLongBuffer();
+                        computeSlab(slab, from, to, executor);
+                    } finally {
+                        file.delete();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Propagates the bitset words [from, to) through the pedigree.
+     * The slab holds one block per thread, each row major: row i of the block of words [w0, w1)
+     * holds those words of ancestor i.
+     */
+    private void computeSlab(final LongBuffer slab, final int from, final int to, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        final int width = to - from;
+        final int parts = Math.min(threads, width);
+        List<Callable<int[]>> tasks = new ArrayList<>();
+        for (int t = 0; t < parts; t++) {
+            final int w0 = t * width / parts;
+            final int w1 = (t + 1) * width / parts;
+            final int block = nAncestors * w0;
+            final int stride = w1 - w0;
+            tasks.add(() -> {
+                // sample bits
+                for (int w = w0; w < w1; w++) {
+                    int first = 64 * (from + w);
+                    int last = Math.min(sampleSize, first + 64);
+                    for (int j = first; j < last; j++) {
+                        int row = block + sampleRow[j] * stride + w - w0;
+                        slab.put(row, slab.get(row) | (1L << (j & 63)));
+                    }
+                }
+                // children before parents
+                int[] count = new int[nAncestors];
+                for (int i = 0; i < nAncestors; i++) {
+                    int m = mother[i] < 0 ? -1 : block + mother[i] * stride;
+                    int f = father[i] < 0 ? -1 : block + father[i] * stride;
+                    int row = block + i * stride;
+                    for (int w = 0; w < stride; w++) {
+                        long bits = slab.get(row + w);
+                        if (bits == 0L) continue;
+                        count[i] += Long.bitCount(bits);
+                        if (m >= 0) slab.put(m + w, slab.get(m + w) | bits);
+                        if (f >= 0) slab.put(f + w, slab.get(f + w) | bits);
+                    }
+                }
+                return count;
+            });
+        }
+        for (Future<int[]> result : executor.invokeAll(tasks)) {
+            int[] count = result.get();
+            for (int i = 0; i < nAncestors; i++) {
+                descendants[i] += count[i];
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.GenealogicalAncestry n Tmax [spill_dir]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        Simulation S = new Simulation();
+        S.simulate(n, Tmax);
+
+        GenealogicalAncestry G = new GenealogicalAncestry(S);
+        if (args.length > 2) {
+            G.setSpillDirectory(new File(args[2]));
+        }
+        G.compute();
+
+        System.out.println("sample " + G.getSampleSize() + "\tancestors " + G.getAncestors()
+                + "\tuniversal ancestors " + G.getUniversalAncestors());
+        System.out.println("most recent common ancestor born at t = " + G.getCommonAncestorTime());
+        System.out.println("identical ancestors point at t = " + G.getIdenticalAncestorsTime());
+    }
+}
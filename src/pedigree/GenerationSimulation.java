@@ -0,0 +1,264 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Simulation with non-overlapping generations, for coalescence studies that only need
+ * generation-level pedigrees. Each generation is stored as flat arrays (sex, mother index,
+ * father index into the previous generation), filled by loops over chunks of children
+ * that run in parallel. Chunks use their own random generators split from the seed, so
+ * the pedigree does not depend on the number of threads.
+ *
+ * Fathers are chosen by the same rules as in {@link Simulation}: a woman's first child
+ * is with a mate chosen at random among the men, where men who already have a partner
+ * accept only with probability 1-fidelity; her other children are with that mate with
+ * probability fidelity, and with a random other man otherwise, who becomes her mate for the next
+ * ones. Unlike {@link Simulation}, the first mates are all chosen before any change of mate, and
+ * a man taken by another woman does not leave his previous partner.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.GenerationSimulation n Tmax [seed] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class GenerationSimulation {
+
+    private final double fidelity;
+    private final double generationTime; // years between two generations
+    private final SplittableRandom RND;
+
+    // Generation g: male[g][i], mother[g][i] and father[g][i] (indices in generation g-1)
+    private final ArrayList<boolean[]> male;
+    private final ArrayList<int[]> mother;
+    private final ArrayList<int[]> father;
+
+    // For the empirical study
+    private ArrayList<Integer> populationHistory;
+    private ArrayList<Integer> timeHistory;
+
+    // Default parameters
+    private static final double DEFAULT_FIDELITY = 0.9;
+    private static final int CHUNK_SIZE = 1 << 14; // children per parallel task
+
+    /**
+     * Basic constructor: human lifespans and default fidelity
+     */
+    public GenerationSimulation(long seed) {
+        this(DEFAULT_FIDELITY, meanMaternalAge(new AgeModel()), seed);
+    }
+
+    /**
+     * Regular constructor
+     *
+     * @param fidelity probability of having a child with the current partner
+     * @param generationTime years between two generations
+     * @param seed random seed
+     */
+    public GenerationSimulation(double fidelity, double generationTime, long seed) {
+        this.fidelity = fidelity;
+        this.generationTime = generationTime;
+        this.RND = new SplittableRandom(seed);
+        this.male = new ArrayList<>();
+        this.mother = new ArrayList<>();
+        this.father = new ArrayList<>();
+        this.populationHistory = new ArrayList<>();
+        this.timeHistory = new ArrayList<>();
+    }
+
+    /**
+     * Average age of mothers at birth with the given lifespans
+     * (reproduction at constant rate during the mating period).
+     */
+    public static double meanMaternalAge(AgeModel ageModel) {
+        double sum = 0.0;
+        double span = 0.0;
+        for (double a = Sim.MIN_MATING_AGE_F; a < Sim.MAX_MATING_AGE_F; a += 1.0) {
+            double s = ageModel.expectedParenthoodSpan(a, Math.min(a + 1.0, Sim.MAX_MATING_AGE_F));
+            sum += s * (a + 0.5);
+            span += s;
+        }
+        return sum / span;
+    }
+
+    /**
+     * Getters
+     */
+    public int getGenerations() { return male.size(); }
+
+    public int getSize(int g) { return male.get(g).length; }
+
+    public double getTime(int g) { return g * generationTime; }
+
+    public boolean[] getMale(int g) { return male.get(g); }
+
+    public int[] getMothers(int g) { return mother.get(g); }
+
+    public int[] getFathers(int g) { return father.get(g); }
+
+    public ArrayList<Integer> getPopulationHistory() { return this.populationHistory; }
+
+    public ArrayList<Integer> getTimeHistory() { return this.timeHistory; }
+
+    /**
+     * Random generators for the chunks of a generation, split in a fixed order
+     */
+    private SplittableRandom[] splitChunks(int chunks) {
+        SplittableRandom[] rnd = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            rnd[c] = RND.split();
+        }
+        return rnd;
+    }
+
+    /**
+     * Random sexes for a generation
+     */
+    private boolean[] randomSexes(int n) {
+        boolean[] sex = new boolean[n];
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom[] rnd = splitChunks(chunks);
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            SplittableRandom R = rnd[c];
+            int to = Math.min(n, (c + 1) * CHUNK_SIZE);
+            for (int i = c * CHUNK_SIZE; i < to; i++) {
+                sex[i] = R.nextBoolean();
+            }
+        });
+        return sex;
+    }
+
+    /**
+     * Creates the next generation.
+     *
+     * @param n size of the new generation
+     * @return false if the previous generation cannot reproduce (no men or no women)
+     */
+    private boolean nextGeneration(int n) {
+        boolean[] parentMale = male.get(male.size() - 1);
+        int nMen = 0;
+        for (boolean m : parentMale) {
+            if (m) nMen++;
+        }
+        int nWomen = parentMale.length - nMen;
+        if (nMen == 0 || nWomen == 0) {
+            return false;
+        }
+        final int[] men = new int[nMen];
+        final int[] women = new int[nWomen];
+        for (int i = 0, j = 0, k = 0; i < parentMale.length; i++) {
+            if (parentMale[i]) men[j++] = i;
+            else women[k++] = i;
+        }
+
+        // Pass 1 (parallel): sex and mother of each child
+        final boolean[] sex = randomSexes(n);
+        final int[] mom = new int[n];
+        final int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom[] rnd = splitChunks(chunks);
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            SplittableRandom R = rnd[c];
+            int to = Math.min(n, (c + 1) * CHUNK_SIZE);
+            for (int i = c * CHUNK_SIZE; i < to; i++) {
+                mom[i] = women[R.nextInt(nWomen)];
+            }
+        });
+
+        // Pass 2 (sequential): children of each mother, in order, and her first mate
+        final int[] first = new int[parentMale.length + 1]; // children of x: first[x] to first[x+1]-1 in children
+        for (int i = 0; i < n; i++) {
+            first[mom[i] + 1]++;
+        }
+        for (int x = 0; x < parentMale.length; x++) {
+            first[x + 1] += first[x];
+        }
+        final int[] children = new int[n];
+        int[] next = Arrays.copyOf(first, parentMale.length);
+        for (int i = 0; i < n; i++) {
+            children[next[mom[i]]++] = i;
+        }
+        final int[] mate = new int[parentMale.length];
+        boolean[] partnered = new boolean[parentMale.length];
+        for (int x : women) {
+            if (first[x] == first[x + 1]) continue;
+            int y;
+            int attempts = 0;
+            do { // men with a partner accept with probability 1-fidelity
+                y = men[RND.nextInt(nMen)];
+            } while (partnered[y] && RND.nextDouble() < fidelity && ++attempts < nMen);
+            mate[x] = y;
+            partnered[y] = true;
+        }
+
+        // Pass 3 (parallel over the mothers): father of each child, the mate changing when she is unfaithful
+        final int[] dad = new int[n];
+        final int motherChunks = (nWomen + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom[] rndFathers = splitChunks(motherChunks);
+        IntStream.range(0, motherChunks).parallel().forEach(c -> {
+            SplittableRandom R = rndFathers[c];
+            int to = Math.min(nWomen, (c + 1) * CHUNK_SIZE);
+            for (int w = c * CHUNK_SIZE; w < to; w++) {
+                int x = women[w];
+                int y = mate[x];
+                for (int j = first[x]; j < first[x + 1]; j++) {
+                    if (j > first[x] && men.length > 1 && R.nextDouble() >= fidelity) {
+                        int k = R.nextInt(men.length - 1);
+                        y = men[k] < y ? men[k] : men[k + 1]; // any man other than the mate, her new mate
+                    }
+                    dad[children[j]] = y;
+                }
+            }
+        });
+
+        male.add(sex);
+        mother.add(mom);
+        father.add(dad);
+        return true;
+    }
+
+    /**
+     * Runs the simulation with a constant population size.
+     *
+     * @param n size of each generation
+     * @param Tmax duration of the simulation
+     */
+    void simulate(int n, double Tmax) {
+        male.add(randomSexes(n));
+        mother.add(new int[n]);
+        father.add(new int[n]);
+        Arrays.fill(mother.get(0), -1);
+        Arrays.fill(father.get(0), -1);
+
+        int nextCentury = 0;
+        while (true) {
+            int g = male.size() - 1;
+            if (getTime(g) >= nextCentury) {
+                timeHistory.add((int) getTime(g));
+                populationHistory.add(n);
+                nextCentury = 100 * ((int) (getTime(g) / 100) + 1);
+            }
+            if (getTime(g + 1) > Tmax || !nextGeneration(n)) {
+                break;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.GenerationSimulation n Tmax [seed]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        GenerationSimulation G = new GenerationSimulation(seed);
+        G.simulate(n, Tmax);
+
+        Coalescence C = new Coalescence(G);
+        Runner.printResults(G.getPopulationHistory(), G.getTimeHistory(), C.getCpMen(), C.getCpWomen());
+    }
+}
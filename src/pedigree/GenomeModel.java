@@ -0,0 +1,278 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Genomes of the living Sims: L biallelic autosomal loci on two haplotypes, a Y marker
+ * (inherited from the father by men) and an mtDNA marker (inherited from the mother by all).
+ *
+ * Genomes live in one shared arena of longs, one slot per living Sim (see {@link Sim#getGenome}):
+ * each haplotype is packed 64 loci per word, and each marker is one word. A child receives from
+ * each parent a gamete built word by word, (first &amp; mask) | (second &amp; ~mask), where the mask
+ * switches at the crossovers; mutations flip single bits. Allele counts over the living population
+ * are updated at each birth and death, so the summary taken at each sample is immediate.
+ *
+ * Register it with {@link Simulation#addListener} before the simulation starts.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.GenomeModel n Tmax [loci [seed]] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class GenomeModel implements SimulationListener {
+
+    private final int loci;
+    private final int words; // per haplotype
+    private final int stride; // longs per slot: two haplotypes, Y and mtDNA
+    private final double recombination; // expected crossovers per gamete (Morgans)
+    private final double mutation; // per locus and per gamete
+    private final double markerMutation; // per marker and per gamete
+    private final Random RND;
+
+    private long[] arena;
+    private int slots; // slots ever used
+    private int[] free = new int[64]; // released slots
+    private int nFree;
+
+    // Living population
+    private final int[] derived; // number of derived alleles at each locus
+    private int haplotypes; // number of autosomal haplotypes
+    private final Map<Long, Integer> yMarkers = new HashMap<>();
+    private final Map<Long, Integer> mtMarkers = new HashMap<>();
+
+    private final ArrayList<double[]> history = new ArrayList<>(); // {time, segregating, heterozygosity, Y, mt}
+
+    // Default parameters
+    private static final double DEFAULT_RECOMBINATION = 1.0;
+    private static final double DEFAULT_MUTATION = 1e-5;
+    private static final double DEFAULT_MARKER_MUTATION = 1e-3;
+    private static final int INITIAL_SLOTS = 1024;
+
+    /**
+     * Constructors
+     *
+     * @param loci number of autosomal loci
+     * @param recombination expected number of crossovers per gamete
+     * @param mutation mutation probability per locus and per gamete
+     * @param markerMutation mutation probability of the Y and mtDNA markers per transmission
+     * @param seed random seed (independent of the simulation)
+     */
+    public GenomeModel(int loci, double recombination, double mutation, double markerMutation, long seed) {
+        if (loci <= 0) {
+            throw new IllegalArgumentException("Illegal number of loci. Must be a positive integer.");
+        }
+        this.loci = loci;
+        this.words = (loci + 63) >>> 6;
+        this.stride = 2 * words + 2;
+        this.recombination = recombination;
+        this.mutation = mutation;
+        this.markerMutation = markerMutation;
+        this.RND = new Random(seed);
+        this.arena = new long[INITIAL_SLOTS * stride];
+        this.derived = new int[loci];
+    }
+
+    public GenomeModel(int loci, long seed) {
+        this(loci, DEFAULT_RECOMBINATION, DEFAULT_MUTATION, DEFAULT_MARKER_MUTATION, seed);
+    }
+
+    /**
+     * Getters
+     */
+    public int getLoci() { return loci; }
+
+    public ArrayList<double[]> getHistory() { return history; }
+
+    /**
+     * Allele of a living Sim
+     *
+     * @param x Sim
+     * @param haplotype 0 or 1
+     * @param locus locus
+     * @return true for the derived allele
+     */
+    public boolean getAllele(Sim x, int haplotype, int locus) {
+        int base = x.getGenome() * stride + haplotype * words;
+        return (arena[base + (locus >>> 6)] & (1L << locus)) != 0;
+    }
+
+    public long getYMarker(Sim x) { return arena[x.getGenome() * stride + 2 * words]; }
+
+    public long getMtMarker(Sim x) { return arena[x.getGenome() * stride + 2 * words + 1]; }
+
+    /**
+     * Frequency of the derived allele at a locus, in the living population
+     */
+    public double getFrequency(int locus) {
+        return haplotypes == 0 ? 0.0 : (double) derived[locus] / haplotypes;
+    }
+
+    private int allocate() {
+        if (nFree > 0) {
+            return free[--nFree];
+        }
+        if ((long) (slots + 1) * stride > arena.length) {
+            arena = Arrays.copyOf(arena, 2 * arena.length);
+        }
+        return slots++;
+    }
+
+    private void release(int slot) {
+        if (nFree == free.length) {
+            free = Arrays.copyOf(free, 2 * nFree);
+        }
+        free[nFree++] = slot;
+    }
+
+    /**
+     * Flips a Poisson number of random bits among the first n bits starting at word base.
+     */
+    private void mutate(int base, int n, double rate) {
+        long k = AgeModel.randomPoisson(RND, rate * n);
+        for (long i = 0; i < k; i++) {
+            int bit = RND.nextInt(n);
+            arena[base + (bit >>> 6)] ^= 1L << bit;
+        }
+    }
+
+    /**
+     * Writes a recombined gamete of the parent's two haplotypes at word dest.
+     */
+    private void gamete(int parent, int dest) {
+        int first = parent * stride;
+        int second = first + words;
+        if (RND.nextBoolean()) {
+            int t = first;
+            first = second;
+            second = t;
+        }
+        int k = (int) Math.min(AgeModel.randomPoisson(RND, recombination), 4L * loci);
+        int[] crossovers = new int[k];
+        for (int i = 0; i < k; i++) {
+            crossovers[i] = 1 + RND.nextInt(Math.max(1, loci - 1)); // first locus after the crossover
+        }
+        Arrays.sort(crossovers);
+
+        boolean fromFirst = true;
+        int c = 0;
+        for (int w = 0; w < words; w++) {
+            long mask = fromFirst ? -1L : 0L; // loci taken from the first haplotype
+            int end = (w + 1) << 6;
+            while (c < k && crossovers[c] < end) {
+                mask ^= -1L << crossovers[c]; // switch haplotype from this bit on
+                fromFirst = !fromFirst;
+                c++;
+            }
+            arena[dest + w] = (arena[first + w] & mask) | (arena[second + w] & ~mask);
+        }
+        mutate(dest, loci, mutation);
+    }
+
+    private static void count(Map<Long, Integer> markers, long marker, int delta) {
+        if (markers.merge(marker, delta, Integer::sum) == 0) {
+            markers.remove(marker);
+        }
+    }
+
+    /**
+     * Adds (delta = 1) or removes (delta = -1) a genome from the population counts.
+     */
+    private void census(Sim x, int delta) {
+        int base = x.getGenome() * stride;
+        for (int w = 0; w < 2 * words; w++) {
+            long bits = arena[base + w];
+            int offset = (w % words) << 6;
+            while (bits != 0) {
+                derived[offset + Long.numberOfTrailingZeros(bits)] += delta;
+                bits &= bits - 1;
+            }
+        }
+        haplotypes += 2 * delta;
+        if (x.isMale()) {
+            count(yMarkers, arena[base + 2 * words], delta);
+        }
+        count(mtMarkers, arena[base + 2 * words + 1], delta);
+    }
+
+    @Override
+    public void reproduction(Sim mother, Sim father, Sim child) {
+        int slot = allocate();
+        child.setGenome(slot);
+        int base = slot * stride;
+        gamete(mother.getGenome(), base);
+        gamete(father.getGenome(), base + words);
+        arena[base + 2 * words] = arena[father.getGenome() * stride + 2 * words];
+        arena[base + 2 * words + 1] = arena[mother.getGenome() * stride + 2 * words + 1];
+        mutate(base + 2 * words, 64, markerMutation / 64);
+        mutate(base + 2 * words + 1, 64, markerMutation / 64);
+    }
+
+    @Override
+    public void birth(Sim x) {
+        if (x.getGenome() < 0) { // founder: random haplotypes and markers
+            int slot = allocate();
+            x.setGenome(slot);
+            int base = slot * stride;
+            for (int w = 0; w < 2 * words; w++) {
+                arena[base + w] = RND.nextLong();
+            }
+            if ((loci & 63) != 0) { // unused bits of the last words
+                arena[base + words - 1] &= -1L >>> -loci;
+                arena[base + 2 * words - 1] &= -1L >>> -loci;
+            }
+            arena[base + 2 * words] = RND.nextLong();
+            arena[base + 2 * words + 1] = RND.nextLong();
+        }
+        census(x, 1);
+    }
+
+    @Override
+    public void death(Sim x, double time) {
+        if (x.getGenome() >= 0) {
+            census(x, -1);
+            release(x.getGenome());
+            x.setGenome(-1);
+        }
+    }
+
+    @Override
+    public void sample(int time, int size) {
+        int segregating = 0;
+        double heterozygosity = 0.0;
+        for (int l = 0; l < loci; l++) {
+            if (derived[l] > 0 && derived[l] < haplotypes) {
+                segregating++;
+                double p = getFrequency(l);
+                heterozygosity += 2 * p * (1 - p);
+            }
+        }
+        history.add(new double[]{time, segregating, heterozygosity / loci, yMarkers.size(), mtMarkers.size()});
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.GenomeModel n Tmax [loci [seed]]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int loci = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        Simulation S = new Simulation();
+        S.setSeed(seed);
+        GenomeModel G = new GenomeModel(loci, seed);
+        S.addListener(G);
+        S.simulate(n, Tmax);
+
+        for (double[] h : G.getHistory()) {
+            System.out.println(String.format("[t = %d, segregating = %d, heterozygosity = %.4f, Y = %d, mt = %d]",
+                    (int) h[0], (int) h[1], h[2], (int) h[3], (int) h[4]));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Island model: the population is split into K subpopulations (demes), each with its own
+ * events, men, women and random number generator. Islands are advanced in parallel during
+ * fixed windows of simulated time; migration happens between windows, and each island numbers
+ * its own Sims, so the result only depends on the seed, not on the scheduling of the threads.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.IslandSimulation n Tmax K migration_rate [seed] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class IslandSimulation {
+
+    private final Simulation[] islands;
+    private final Random RND; // migration decisions
+    private final double migrationRate; // probability of migrating per individual per year
+    private final double window; // length of the synchronization windows
+
+    // For the empirical study
+    private int nextCentury;
+    private ArrayList<Integer> populationHistory;
+    private ArrayList<Integer> timeHistory;
+
+    // Default parameters
+    private static final double DEFAULT_WINDOW = 10.0;
+    private static final int ID_SHIFT = 40; // up to 2^40 Sims per island
+
+    /**
+     * Constructor
+     *
+     * @param K number of islands
+     * @param migrationRate migration rate (per individual per year)
+     * @param window length of the synchronization windows (years)
+     * @param seed random seed
+     */
+    public IslandSimulation(int K, double migrationRate, double window, long seed) {
+        if (K < 1) {
+            throw new IllegalArgumentException("Number of islands must be positive");
+        }
+        if (!(window > 0.0)) {
+            throw new IllegalArgumentException("Synchronization window must be positive");
+        }
+        this.RND = new Random(seed);
+        this.islands = new Simulation[K];
+        for (int k = 0; k < K; k++) {
+            islands[k] = new Simulation();
+            islands[k].setSeed(RND.nextLong());
+            islands[k].setDeme(k);
+            islands[k].setFirstId((long) (k + 1) << ID_SHIFT); // identifiers prefixed by the deme
+        }
+        this.migrationRate = migrationRate;
+        this.window = window;
+        this.populationHistory = new ArrayList<>();
+        this.timeHistory = new ArrayList<>();
+        this.nextCentury = 0;
+    }
+
+    public IslandSimulation(int K, double migrationRate, long seed) {
+        this(K, migrationRate, DEFAULT_WINDOW, seed);
+    }
+
+    /**
+     * Getters
+     */
+    public Simulation getIsland(int k) {
+        return islands[k];
+    }
+
+    public ArrayList<Integer> getPopulationHistory() {
+        return this.populationHistory;
+    }
+
+    public ArrayList<Integer> getTimeHistory() {
+        return this.timeHistory;
+    }
+
+    public int getPopulationSize() {
+        int size = 0;
+        for (Simulation island : islands) {
+            size += island.getPopulationSize();
+        }
+        return size;
+    }
+
+    public PA[] getMenArray() {
+        List<PA> men = new ArrayList<>();
+        for (Simulation island : islands) {
+            for (PA x : island.getMenArray()) {
+                men.add(x);
+            }
+        }
+        return men.toArray(new PA[0]);
+    }
+
+    public PA[] getWomenArray() {
+        List<PA> women = new ArrayList<>();
+        for (Simulation island : islands) {
+            for (PA x : island.getWomenArray()) {
+                women.add(x);
+            }
+        }
+        return women.toArray(new PA[0]);
+    }
+
+    /**
+     * Moves random individuals between islands. Emigrants are all chosen before
+     * any immigrant arrives.
+     */
+    private void migrate() {
+        int K = islands.length;
+        if (K < 2 || migrationRate <= 0.0) {
+            return;
+        }
+        List<Sim> migrants = new ArrayList<>();
+        List<Integer> destinations = new ArrayList<>();
+        for (int k = 0; k < K; k++) {
+            Simulation island = islands[k];
+            long m = AgeModel.randomPoisson(RND, migrationRate * window * island.getPopulationSize());
+            for (long i = 0; i < m; i++) {
+                Sim x = island.emigrate(RND);
+                if (x == null) {
+                    break;
+                }
+                int j = RND.nextInt(K - 1);
+                migrants.add(x);
+                destinations.add(j < k ? j : j + 1); // any other island
+            }
+        }
+        for (int i = 0; i < migrants.size(); i++) {
+            islands[destinations.get(i)].immigrate(migrants.get(i));
+        }
+    }
+
+    /**
+     * Records the total population size as a sample for the empirical study
+     */
+    private void saveSample(double time) {
+        this.timeHistory.add((int) time);
+        this.populationHistory.add(getPopulationSize());
+        nextCentury += 100;
+    }
+
+    /**
+     * Runs the simulation on all islands.
+     *
+     * @param n total number of founding sims, split evenly among islands
+     * @param Tmax duration of the simulation
+     */
+    void simulate(int n, double Tmax) throws InterruptedException, ExecutionException {
+        int K = islands.length;
+        for (int k = 0; k < K; k++) {
+            islands[k].generateFounders(n / K + (k < n % K ? 1 : 0));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(K, Runtime.getRuntime().availableProcessors()));
+        try {
+            double t = 0.0;
+            while (t < Tmax) {
+                final double until = Math.min(t + window, Tmax);
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (final Simulation island : islands) {
+                    tasks.add(() -> {
+                        island.advance(until);
+                        return null;
+                    });
+                }
+                for (Future<Void> f : executor.invokeAll(tasks)) {
+                    f.get(); // propagates failures
+                }
+                t = until;
+                migrate();
+                if (t >= nextCentury || t >= Tmax) {
+                    saveSample(t);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || args.length > 5) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.IslandSimulation n Tmax K migration_rate [seed]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int K = Integer.parseInt(args[2]);
+        double migrationRate = Double.parseDouble(args[3]);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        IslandSimulation S = new IslandSimulation(K, migrationRate, seed);
+        S.simulate(n, Tmax);
+
+        Coalescence C = new Coalescence(S.getMenArray(), S.getWomenArray());
+        Runner.printResults(S.getPopulationHistory(), S.getTimeHistory(), C.getCpMen(), C.getCpWomen());
+    }
+}
@@ -0,0 +1,333 @@
+package pedigree;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Priority queue with the keys stored inline: a d-ary heap over two parallel arrays, the
+ * priorities (double) and the items. Comparisons read only the array of keys, instead of following
+ * a reference to each item as {@link PQ} does.
+ *
+ * The heap is shifted by arity - 1 positions in the arrays, so that the children of a node,
+ * which are compared together when sinking, start at a multiple of the arity from the first key:
+ * with arity 8, the keys of a group take 64 bytes, the size of a cache line. The groups are aligned
+ * relative to the array data only: the JVM does not align that data to a cache line (the array
+ * header comes first), so a group may still straddle two lines. Ties are broken exactly as in {@link PQ}, so both queues give the same order and the
+ * same positions ({@link #getElement}) for the same arity and the same operations.
+ *
+ * {@link #calibrate} measures which arity is the fastest on this machine for a queue size.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.KeyedPQ size </code>
+ *
+ * @param <T> type of the items
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class KeyedPQ<T> {
+
+    private final PQ.Type type;
+    private final int sign; // 1 for a min heap, -1 for a max heap
+    private final int arity; // Max number of children per parent
+    private final int offset; // position of the root in the arrays
+    private int size;
+    private double[] keys;
+    private Object[] items;
+
+    private static final int initial_size = 8;
+    private static final int[] CANDIDATE_ARITIES = {2, 4, 8, 16};
+    private static final int CALIBRATION_ROUNDS = 3;
+
+    /**
+     * Constructor
+     *
+     * @param arity number of children per parent
+     * @param type min or max heap
+     */
+    public KeyedPQ(int arity, PQ.Type type) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Parameter children to DHeap must be > 1");
+        }
+        this.arity = arity;
+        this.offset = arity - 1;
+        this.type = type;
+        this.sign = type == PQ.Type.MIN ? 1 : -1;
+        this.keys = new double[offset + initial_size];
+        this.items = new Object[offset + initial_size];
+        this.size = 0;
+    }
+
+    /**
+     * Getters
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    public PQ.Type getType() {
+        return type;
+    }
+
+    public T getElement(int i) {
+        return item(offset + i);
+    }
+
+    public double getKey(int i) {
+        return keys[offset + i];
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public T peek() {
+        return item(offset);
+    }
+
+    /**
+     * Item at a position of the array (only items of type T are stored)
+     */
+    @SuppressWarnings("unchecked")
+    private T item(int slot) {
+        return (T) items[slot];
+    }
+
+    public double peekKey() {
+        return keys[offset];
+    }
+
+    /**
+     * Expands or reduces the arrays to a number of items
+     */
+    private void reSize(int capacity) {
+        keys = Arrays.copyOf(keys, offset + capacity);
+        items = Arrays.copyOf(items, offset + capacity);
+    }
+
+    /**
+     * True if key b must be above key a in the heap
+     */
+    private boolean secondIsHigher(double a, double b) {
+        return sign * Double.compare(a, b) > 0;
+    }
+
+    /**
+     * Returns the position of the smallest (if min heap) or biggest child (if max heap)
+     *
+     * @param parent position of the parent
+     * @return position of the child, 0 if there is none
+     */
+    private int targetChild(int parent) {
+        int firstChild = parent * arity + 1;
+        if (firstChild >= size) {
+            return 0;
+        }
+        int last = Math.min(firstChild + arity, size) + offset;
+        int target = firstChild + offset;
+        double targetKey = keys[target];
+        for (int c = target + 1; c < last; c++) {
+            if (secondIsHigher(targetKey, keys[c])) {
+                target = c;
+                targetKey = keys[c];
+            }
+        }
+        return target - offset;
+    }
+
+    /**
+     * Moves an item up from position i until its parent is not lower
+     */
+    private void swim(int i, T item, double key) {
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (!secondIsHigher(keys[offset + parent], key)) {
+                break;
+            }
+            keys[offset + i] = keys[offset + parent];
+            items[offset + i] = items[offset + parent];
+            i = parent;
+        }
+        keys[offset + i] = key;
+        items[offset + i] = item;
+    }
+
+    /**
+     * Moves an item down from position i until its children are not higher
+     *
+     * @return final position of the item
+     */
+    private int sink(int i, T item, double key) {
+        while (true) {
+            int child = targetChild(i);
+            if (child == 0 || !secondIsHigher(key, keys[offset + child])) {
+                break;
+            }
+            keys[offset + i] = keys[offset + child];
+            items[offset + i] = items[offset + child];
+            i = child;
+        }
+        keys[offset + i] = key;
+        items[offset + i] = item;
+        return i;
+    }
+
+    /**
+     * Adds a new item in the structure
+     *
+     * @param item the item to add
+     * @param key its priority
+     */
+    public void insert(T item, double key) {
+        if (size == items.length - offset) {
+            reSize(2 * size);
+        }
+        swim(size++, item, key);
+    }
+
+    /**
+     * Deletes the root item
+     *
+     * @return the deleted item
+     */
+    public T delete() {
+        if (size == 0) {
+            throw new java.lang.IllegalStateException("Empty Heap");
+        }
+        return remove(0);
+    }
+
+    /**
+     * Deletes the item at an arbitrary position
+     *
+     * @param i position of the item
+     * @return the deleted item
+     */
+    public T remove(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("No element " + i + " in heap of size " + size);
+        }
+        T item = item(offset + i);
+        int last = offset + --size;
+        T moved = item(last);
+        double key = keys[last];
+        items[last] = null;
+        if (i < size) {
+            if (sink(i, moved, key) == i) {
+                swim(i, moved, key);
+            }
+        }
+
+        // Check if need to reduce arrays
+        if (size < (items.length - offset) / 3 && items.length - offset > initial_size) {
+            reSize((items.length - offset) / 2);
+        }
+        return item;
+    }
+
+    /**
+     * Copy of the queue with the same keys at the same positions
+     *
+     * @param copy item of the copy for each item
+     */
+    public KeyedPQ<T> copy(UnaryOperator<T> copy) {
+        KeyedPQ<T> Q = new KeyedPQ<>(arity, type);
+        Q.keys = keys.clone();
+        Q.items = new Object[items.length];
+        for (int i = 0; i < size; i++) {
+            Q.items[offset + i] = copy.apply(item(offset + i));
+        }
+        Q.size = size;
+        return Q;
+    }
+
+    /**
+     * Average time of a hold operation (delete the root, insert an item with a later key)
+     * for each candidate arity, on a queue of a given size: the best of a few rounds, after a
+     * warm-up round, with the arities in a different order in each round.
+     *
+     * @param size number of items in the queue
+     * @return nanoseconds per operation, in the order of {@link #getCandidateArities}
+     */
+    public static double[] measure(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Illegal queue size. Must be a positive integer.");
+        }
+        int operations = Math.max(1 << 18, 4 * size);
+        double[] best = new double[CANDIDATE_ARITIES.length];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (int round = -1; round < CALIBRATION_ROUNDS; round++) { // round -1: warm-up
+            for (int k = 0; k < CANDIDATE_ARITIES.length; k++) {
+                int a = (k + Math.max(round, 0)) % CANDIDATE_ARITIES.length;
+                Random rnd = new Random(round);
+                KeyedPQ<Object> queue = new KeyedPQ<>(CANDIDATE_ARITIES[a], PQ.Type.MIN);
+                Object item = new Object();
+                for (int i = 0; i < size; i++) {
+                    queue.insert(item, -size * Math.log(rnd.nextDouble()));
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < operations; i++) {
+                    double now = queue.peekKey();
+                    queue.delete();
+                    queue.insert(item, now - size * Math.log(rnd.nextDouble()));
+                }
+                if (round >= 0) {
+                    best[a] = Math.min(best[a], (double) (System.nanoTime() - start) / operations);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fastest arity for a queue of a given size, on this machine.
+     *
+     * @param size expected number of items in the queue
+     */
+    public static int calibrate(int size) {
+        return fastest(measure(size));
+    }
+
+    /**
+     * Candidate arity with the shortest time
+     *
+     * @param time times in the order of {@link #getCandidateArities}
+     */
+    private static int fastest(double[] time) {
+        int best = 0;
+        for (int a = 1; a < time.length; a++) {
+            if (time[a] < time[best]) {
+                best = a;
+            }
+        }
+        return CANDIDATE_ARITIES[best];
+    }
+
+    public static int[] getCandidateArities() {
+        return CANDIDATE_ARITIES.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            s.append(i == 0 ? "" : ", ").append(keys[offset + i]);
+        }
+        return s.append(']').toString();
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.KeyedPQ size");
+        }
+        int size = Integer.parseInt(args[0]);
+        double[] time = measure(size);
+        for (int a = 0; a < time.length; a++) {
+            System.out.println(String.format("arity %2d: %6.1f ns per operation", CANDIDATE_ARITIES[a], time[a]));
+        }
+        System.out.println("calibrated arity: " + fastest(time));
+    }
+}
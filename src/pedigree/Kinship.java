@@ -0,0 +1,431 @@
+package pedigree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Kinship and inbreeding coefficients over the pedigree, for measuring pedigree collapse.
+ *
+ * The kinship of two Sims is computed by always expanding the younger one into its parents,
+ * phi(a, b) = (phi(mother(a), b) + phi(father(a), b)) / 2, with phi(a, a) = (1 + F(a)) / 2 and
+ * F(a) = phi(mother(a), father(a)), so every pair is reached from younger to older pairs, in birth
+ * order. The coefficients are exact, and the pairs (a, b) are memoized.
+ *
+ * As a listener, only the sampled quantities are computed: the inbreeding of a random fraction of
+ * the newborns, at their birth, and the kinship of random pairs of living Sims at each sample. Both
+ * go through a bounded memo of the pairs (least recently used pairs are dropped first), filled in
+ * birth order, and the pairs of past generations are evicted at each sample ({@link #evictBefore});
+ * a missing pair is computed again, exactly, from the pairs of the parents of its younger Sim. The
+ * memory is then bounded by the capacity of the memo whatever the population size, and the work by
+ * the number of sampled newborns and pairs (each costing the pairs of their ancestors that are not
+ * memoized, which grows with the depth of the pedigree).
+ *
+ * For deep pedigrees of small populations, {@link #setLivingTable} keeps instead the pairs of all
+ * the living Sims in a triangular table: at each birth, the pairs of the newborn are computed from
+ * the pairs of its parents (two lookups each), and a query on living Sims is a lookup. This costs
+ * N^2 / 2 doubles and O(N) per birth for N living Sims, so it is opt-in and capped: past the chosen
+ * number of living Sims, the table is dropped and the memo takes over.
+ *
+ * With {@link #setMaxDepth}, relationships through ancestors more than a number of parent steps
+ * back are ignored and nothing is memoized: a query then visits at most 2^(depth+1) pairs, but the
+ * coefficients are approximate (lower bounds) and are labelled so in the output.
+ *
+ * It keeps the mean inbreeding over the (sampled) living population, and at each sample estimates
+ * the mean kinship from random pairs of living Sims (from a {@link PopulationIndex} registered
+ * before it); pairs where both Sims were born more than a given age before the sample are then
+ * evicted. Needs the parent references: not usable with a {@link PedigreeStore}.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.Kinship n Tmax [pairs [seed [inbreeding_fraction [max_depth [living_table]]]]] </code>
+ * (max_depth 0 for the exact coefficients, living_table 0 for no table).
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class Kinship implements SimulationListener {
+
+    /**
+     * Unordered pair of identifiers
+     */
+    private static final class Pair {
+
+        private final long a;
+        private final long b;
+
+        Pair(long x, long y) {
+            this.a = Math.min(x, y);
+            this.b = Math.max(x, y);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair p = (Pair) o;
+            return p.a == a && p.b == b;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(a * 0x9E3779B97F4A7C15L + b);
+        }
+    }
+
+    /**
+     * Memoized kinship, with the birth time of the younger Sim of the pair
+     */
+    private static final class Memoized {
+
+        private final double kinship;
+        private final double birth;
+
+        Memoized(double kinship, double birth) {
+            this.kinship = kinship;
+            this.birth = birth;
+        }
+    }
+
+    private final LinkedHashMap<Pair, Memoized> memo;
+    private int maxDepth = EXACT; // parent steps explored per query, EXACT for no limit
+    private final double horizon;
+    private final int pairs;
+    private final PopulationIndex index;
+    private final Random RND;
+    private double inbreedingFraction = 1.0; // newborns whose inbreeding is computed
+
+    // Pairs of the living population (opt-in): lower triangle of the slots, row by row
+    private int tableLimit; // living Sims in the table, 0 for no table
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private Sim[] slotSims = new Sim[0]; // null for a free slot
+    private int slotCount; // slots ever allocated
+    private double[] table = new double[0];
+
+    // Inbreeding of the living population
+    private final Map<Long, Double> living = new HashMap<>();
+    private double sumInbreeding;
+
+    private final ArrayList<double[]> history = new ArrayList<>(); // {time, mean inbreeding, mean kinship}
+
+    // Default parameters
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final int EXACT = 0;
+    private static final double DEFAULT_HORIZON = 200.0;
+    private static final int DEFAULT_PAIRS = 1000;
+    private static final int MAX_TABLE_LIVING = 65535; // the table fits in one array
+
+    /**
+     * Constructors
+     *
+     * @param capacity maximum number of memoized pairs
+     * @param horizon age of the pairs evicted at each sample
+     * @param pairs random pairs of living Sims for the mean kinship at each sample
+     * @param index lifetimes of the Sims (for the samples), may be null
+     * @param seed random seed for the pairs
+     */
+    public Kinship(final int capacity, double horizon, int pairs, PopulationIndex index, long seed) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal cache capacity. Must be a positive integer.");
+        }
+        this.memo = new LinkedHashMap<Pair, Memoized>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Pair, Memoized> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.horizon = horizon;
+        this.pairs = pairs;
+        this.index = index;
+        this.RND = new Random(seed);
+    }
+
+    public Kinship(PopulationIndex index, long seed) {
+        this(DEFAULT_CAPACITY, DEFAULT_HORIZON, DEFAULT_PAIRS, index, seed);
+    }
+
+    /**
+     * Getters
+     */
+    public int getCacheSize() { return memo.size(); }
+
+    public int getMaxDepth() { return maxDepth; }
+
+    /**
+     * If the pairs of the living population are kept in the table
+     */
+    public boolean hasLivingTable() { return tableLimit > 0; }
+
+    /**
+     * If the coefficients are exact, false if they are truncated at a depth
+     */
+    public boolean isExact() { return maxDepth == EXACT; }
+
+    /**
+     * Setters
+     */
+
+    /**
+     * Ignores the common ancestors more than a number of parent steps back, without memoizing:
+     * the coefficients are then approximate (lower bounds). 0 for the exact coefficients.
+     */
+    public void setMaxDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Illegal depth. Must be a non-negative integer.");
+        }
+        this.maxDepth = depth;
+    }
+
+    /**
+     * Keeps the pairs of the living population in a table, as long as there are at most a given
+     * number of living Sims (then the table is dropped). To call before the simulation starts.
+     *
+     * @param maxLiving maximum number of living Sims in the table, 0 for no table
+     */
+    public void setLivingTable(int maxLiving) {
+        if (maxLiving < 0 || maxLiving > MAX_TABLE_LIVING) {
+            throw new IllegalArgumentException("Illegal table size. Must be between 0 and " + MAX_TABLE_LIVING + ".");
+        }
+        if (!slots.isEmpty()) {
+            throw new IllegalStateException("The table must be set before the simulation starts");
+        }
+        this.tableLimit = maxLiving;
+    }
+
+    /**
+     * Computes the inbreeding coefficient of a random fraction of the newborns only
+     * (the mean inbreeding is then over that sample of the living population).
+     */
+    public void setInbreedingFraction(double fraction) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Illegal fraction. Must be in (0, 1].");
+        }
+        this.inbreedingFraction = fraction;
+    }
+
+    public ArrayList<double[]> getHistory() { return history; }
+
+    private static boolean isFounder(Sim x) {
+        return x.getMother() == null || x.getFather() == null;
+    }
+
+    /**
+     * Kinship coefficient: probability that alleles drawn at random from a and b are identical by descent
+     */
+    public double kinship(Sim a, Sim b) {
+        return isExact() ? kinship(a, b, -1) : kinship(a, b, maxDepth);
+    }
+
+    /**
+     * Inbreeding coefficient: kinship of the parents
+     */
+    public double inbreeding(Sim x) {
+        return isExact() ? inbreeding(x, -1) : inbreeding(x, maxDepth);
+    }
+
+    private double inbreeding(Sim x, int d) {
+        return isFounder(x) || d == 0 ? 0.0 : kinship(x.getMother(), x.getFather(), d - 1);
+    }
+
+    /**
+     * Kinship with d parent steps left, or exact and memoized if d is negative
+     */
+    private double kinship(Sim a, Sim b, int d) {
+        if (a == null || b == null) {
+            return 0.0;
+        }
+        if (d < 0 && !slots.isEmpty()) {
+            Integer i = slots.get(a.getIndent());
+            Integer j = i == null ? null : slots.get(b.getIndent());
+            if (j != null) {
+                return table[cell(i, j)];
+            }
+        }
+        if (a.getIndent() == b.getIndent()) {
+            return 0.5 * (1.0 + inbreeding(a, d));
+        }
+        if (d == 0) {
+            return 0.0;
+        }
+        // a is the younger one
+        if (b.getBirthTime() > a.getBirthTime()
+                || (b.getBirthTime() == a.getBirthTime() && b.getIndent() > a.getIndent())) {
+            Sim t = a;
+            a = b;
+            b = t;
+        }
+        if (isFounder(a)) {
+            return 0.0; // b is not younger: it cannot descend from a
+        }
+        if (d > 0) {
+            return 0.5 * (kinship(a.getMother(), b, d - 1) + kinship(a.getFather(), b, d - 1));
+        }
+        Pair key = new Pair(a.getIndent(), b.getIndent());
+        Memoized e = memo.get(key);
+        if (e == null) {
+            double phi = 0.5 * (kinship(a.getMother(), b, d - 1) + kinship(a.getFather(), b, d - 1));
+            e = new Memoized(phi, a.getBirthTime());
+            memo.put(key, e);
+        }
+        return e.kinship;
+    }
+
+    /**
+     * Position of the pair of slots i and j in the table
+     */
+    private static int cell(int i, int j) {
+        return (int) (i >= j ? (long) i * (i + 1) / 2 + j : (long) j * (j + 1) / 2 + i);
+    }
+
+    /**
+     * Gives a slot to a newborn and fills its pairs with the living Sims
+     */
+    private void addLiving(Sim x) {
+        if (slots.size() >= tableLimit) {
+            dropTable();
+            return;
+        }
+        Integer m = x.getMother() == null ? null : slots.get(x.getMother().getIndent());
+        Integer f = x.getFather() == null ? null : slots.get(x.getFather().getIndent());
+        int s;
+        if (freeSlots.isEmpty()) {
+            s = slotCount++;
+            if (slotCount > slotSims.length) {
+                int capacity = (int) Math.min(tableLimit, Math.max(16L, 2L * slotSims.length));
+                slotSims = Arrays.copyOf(slotSims, capacity);
+                table = Arrays.copyOf(table, cell(capacity - 1, capacity - 1) + 1);
+            }
+        } else {
+            s = freeSlots.poll();
+        }
+        boolean founder = isFounder(x);
+        if (founder || (m != null && f != null)) {
+            for (int j = 0; j < slotCount; j++) {
+                if (slotSims[j] != null) {
+                    table[cell(s, j)] = founder ? 0.0 : 0.5 * (table[cell(m, j)] + table[cell(f, j)]);
+                }
+            }
+            table[cell(s, s)] = 0.5 * (1.0 + (founder ? 0.0 : table[cell(m, f)]));
+        } else {
+            // a parent already left the table: computed from the older pairs
+            for (Map.Entry<Long, Integer> e : slots.entrySet()) {
+                table[cell(s, e.getValue())] = kinship(x, slotSims[e.getValue()], -1);
+            }
+            table[cell(s, s)] = 0.5 * (1.0 + inbreeding(x, -1));
+        }
+        slotSims[s] = x;
+        slots.put(x.getIndent(), s);
+    }
+
+    /**
+     * Too many living Sims for the table: the memo takes over
+     */
+    private void dropTable() {
+        tableLimit = 0;
+        slots.clear();
+        freeSlots.clear();
+        slotSims = new Sim[0];
+        slotCount = 0;
+        table = new double[0];
+    }
+
+    /**
+     * Drops the memoized pairs where both Sims were born before the given time.
+     */
+    public void evictBefore(double time) {
+        Iterator<Memoized> it = memo.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().birth < time) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void birth(Sim x) {
+        if (isExact() && tableLimit > 0) {
+            addLiving(x);
+        }
+        if (inbreedingFraction < 1 && RND.nextDouble() >= inbreedingFraction) {
+            return;
+        }
+        double F = inbreeding(x);
+        living.put(x.getIndent(), F);
+        sumInbreeding += F;
+    }
+
+    @Override
+    public void death(Sim x, double time) {
+        Integer s = slots.remove(x.getIndent());
+        if (s != null) {
+            slotSims[s] = null;
+            freeSlots.add(s);
+        }
+        Double F = living.remove(x.getIndent());
+        if (F != null) {
+            sumInbreeding -= F;
+        }
+    }
+
+    @Override
+    public void sample(int time, int size) {
+        double meanKinship = Double.NaN;
+        if (index != null) {
+            Sim[] alive = index.aliveAt(time);
+            if (alive.length > 1) {
+                double sum = 0.0;
+                for (int k = 0; k < pairs; k++) {
+                    int i = RND.nextInt(alive.length);
+                    int j = RND.nextInt(alive.length - 1);
+                    sum += kinship(alive[i], alive[j < i ? j : j + 1]);
+                }
+                meanKinship = sum / pairs;
+            }
+        }
+        history.add(new double[]{time, living.isEmpty() ? 0.0 : sumInbreeding / living.size(), meanKinship});
+        evictBefore(time - horizon);
+    }
+
+    @Override
+    public boolean needsParents() {
+        return true;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 7) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.Kinship n Tmax [pairs [seed [inbreeding_fraction [max_depth [living_table]]]]]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int pairs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PAIRS;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        double fraction = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+        int maxDepth = args.length > 5 ? Integer.parseInt(args[5]) : EXACT;
+        int tableSize = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        Simulation S = new Simulation();
+        S.setSeed(seed);
+        PopulationIndex index = new PopulationIndex();
+        Kinship K = new Kinship(DEFAULT_CAPACITY, DEFAULT_HORIZON, pairs, index, seed);
+        K.setInbreedingFraction(fraction);
+        K.setMaxDepth(maxDepth);
+        K.setLivingTable(tableSize);
+        S.addListener(index);
+        S.addListener(K);
+        S.simulate(n, Tmax);
+
+        for (double[] h : K.getHistory()) {
+            System.out.println(String.format("[t = %d, mean inbreeding = %.5f, mean kinship = %.5f]", (int) h[0], h[1], h[2]));
+        }
+        System.out.println(K.isExact() ? "exact" + (K.hasLivingTable() ? ", living pairs in the table" : "")
+                + ", memoized pairs: " + K.getCacheSize()
+                : "approximate: common ancestors at most " + maxDepth + " parent steps back");
+    }
+}
@@ -0,0 +1,138 @@
+package pedigree;
+
+import java.util.Random;
+
+/**
+ * Precomputed inverse cumulative distribution function of an {@link AgeModel}.
+ *
+ * A lifespan is obtained from a single uniform by linear interpolation in the table,
+ * without any logarithm. The table is refined until the interpolation error,
+ * measured at the middle of the cells, is below the requested bound. The first few
+ * cells (the oldest ages, where the inverse has a logarithmic singularity) are not
+ * interpolated but computed exactly; they cover less than 1/1024 of the draws.
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class LifespanTable {
+
+    private final AgeModel model;
+    private final double[] ages; // ages[i] = lifespan with survival probability i/n
+    private final int n; // number of cells
+    private final int tail; // cells below this index are computed exactly
+
+    private static final int initial_cells = 256;
+    private static final int max_cells = 1 << 24;
+    private static final int max_tail_fraction = 1024; // at most 1/1024 of the draws are exact
+
+    /**
+     * Constructor
+     *
+     * @param model lifespan distribution
+     * @param max_error maximum interpolation error (in years)
+     */
+    public LifespanTable(AgeModel model, double max_error) {
+        if (!(max_error > 0.0)) {
+            throw new IllegalArgumentException("Interpolation error bound must be positive");
+        }
+        this.model = model;
+
+        int cells = initial_cells;
+        double[] table = tabulate(cells);
+        int exact = tailCells(table, cells, max_error);
+        while ((long) exact * max_tail_fraction > cells) {
+            cells *= 2;
+            if (cells > max_cells) {
+                throw new IllegalArgumentException("Interpolation error " + max_error + " needs more than " + max_cells + " cells");
+            }
+            table = tabulate(cells);
+            exact = tailCells(table, cells, max_error);
+        }
+        this.ages = table;
+        this.n = cells;
+        this.tail = exact;
+    }
+
+    /**
+     * Getters
+     */
+    public int getCells() { return n; }
+
+    /**
+     * Exact inverse of the survival function.
+     *
+     * @param v survival probability in (0,1]
+     * @return age at which the survival probability is v
+     */
+    private double exactAge(double v) {
+        return model.inverseCumulativeHazard(-Math.log(v));
+    }
+
+    private double[] tabulate(int cells) {
+        double[] table = new double[cells + 1];
+        table[0] = Double.POSITIVE_INFINITY; // survival probability 0
+        for (int i = 1; i < cells; i++) {
+            table[i] = exactAge(i / (double) cells);
+        }
+        table[cells] = 0.0;
+        return table;
+    }
+
+    /**
+     * Number of leading cells where interpolation is not accurate enough
+     *
+     * @return index of the first cell from which all cells are within the error bound
+     */
+    private int tailCells(double[] table, int cells, double max_error) {
+        for (int i = cells - 1; i >= 1; i--) {
+            double mid = 0.5 * (table[i] + table[i + 1]);
+            if (Math.abs(mid - exactAge((i + 0.5) / cells)) > max_error) {
+                return i + 1;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Lifespan at the given survival probability.
+     *
+     * @param v uniform[0,1]
+     * @return interpolated lifespan
+     */
+    public double getAge(double v) {
+        double t = v * n;
+        int i = (int) t;
+        if (i < tail) {
+            // Tail of the distribution: computed exactly
+            return v == 0.0 ? ages[0] : exactAge(v);
+        }
+        if (i >= n) {
+            return ages[n];
+        }
+        return ages[i] + (t - i) * (ages[i + 1] - ages[i]);
+    }
+
+    /**
+     * A random value with the tabulated lifespan distribution.
+     *
+     * @param RND Psudorandom number generator for uniform[0,1]
+     * @return random lifespan
+     */
+    public double randomAge(Random RND) {
+        return getAge(RND.nextDouble());
+    }
+
+    /**
+     * Fills an array with random lifespans.
+     *
+     * @param RND Psudorandom number generator for uniform[0,1]
+     * @param lifespans array to fill
+     */
+    public void randomAges(Random RND, double[] lifespans) {
+        for (int i = 0; i < lifespans.length; i++) {
+            lifespans[i] = RND.nextDouble();
+        }
+        for (int i = 0; i < lifespans.length; i++) {
+            lifespans[i] = getAge(lifespans[i]);
+        }
+    }
+}
@@ -228,6 +228,33 @@ public class PQ<T extends Comparable<? super T>> {
         return root;
     }
 
+    /**
+     * Deletes the item at an arbitrary position
+     *
+     * @param i index of the item
+     * @return the deleted item
+     */
+    public T remove(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("No element " + i + " in heap of size " + size);
+        }
+        T item = array[i];
+
+        swap(i, size - 1);
+        array[size - 1] = null;
+        --size;
+        if (i < size) {
+            sink(i);
+            swim(i);
+        }
+
+        // Check if need to reduce array
+        if (size < array.length / 3) {
+            this.reSize(0.5);
+        }
+        return item;
+    }
+
     /**
      * Creates a heap from an array
      *
@@ -0,0 +1,173 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares two values of one parameter with paired runs: each replicate runs both variants with
+ * the same common random numbers (see {@link Simulation#useCommonRandomNumbers}), and the effect
+ * is estimated from the differences between the two runs of each pair. The measures are the
+ * population size at Tmax and the numbers of paternal and maternal founder lines left (last
+ * coalescence points). The variance of the differences is compared with the variance of the
+ * difference between independent runs (the sum of the variances of the two variants); their ratio
+ * is the factor by which pairing reduces the number of replicates needed for the same precision.
+ *
+ * The parameter is one of accident_rate, death_rate, age_scale, reproduction and fidelity;
+ * the others keep their default values.
+ *
+ * Call with command-line arguments:
+ * <code> java ... pedigree.PairedRuns n Tmax replicates parameter valueA valueB [seed] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class PairedRuns {
+
+    private static final String[] PARAMETERS = {"accident_rate", "death_rate", "age_scale", "reproduction", "fidelity"};
+    private static final double[] DEFAULTS = {0.01, 12.5, 100.0, 2.0, 0.9};
+    public static final String[] MEASURES = {"population", "paternal lines", "maternal lines"};
+    private static final double Z = 1.96; // 95% confidence
+
+    private final int n;
+    private final double Tmax;
+    private final double[] parametersA;
+    private final double[] parametersB;
+
+    // Sums over the pairs, for each measure
+    private int pairs;
+    private final double[] sumA = new double[MEASURES.length];
+    private final double[] sumB = new double[MEASURES.length];
+    private final double[] sumD = new double[MEASURES.length];
+    private final double[] sumA2 = new double[MEASURES.length];
+    private final double[] sumB2 = new double[MEASURES.length];
+    private final double[] sumD2 = new double[MEASURES.length];
+
+    /**
+     * Constructor
+     *
+     * @param n number of founders
+     * @param Tmax duration of the simulations
+     * @param parameter name of the compared parameter
+     * @param valueA value of variant A
+     * @param valueB value of variant B
+     */
+    public PairedRuns(int n, double Tmax, String parameter, double valueA, double valueB) {
+        int p = -1;
+        for (int i = 0; i < PARAMETERS.length; i++) {
+            if (PARAMETERS[i].equals(parameter)) {
+                p = i;
+            }
+        }
+        if (p < 0) {
+            throw new IllegalArgumentException("Illegal parameter " + parameter + ". Must be one of " + String.join(", ", PARAMETERS) + ".");
+        }
+        this.n = n;
+        this.Tmax = Tmax;
+        this.parametersA = DEFAULTS.clone();
+        this.parametersB = DEFAULTS.clone();
+        this.parametersA[p] = valueA;
+        this.parametersB[p] = valueB;
+    }
+
+    /**
+     * Getters
+     */
+    public int getPairs() { return pairs; }
+
+    public double getMeanA(int measure) { return sumA[measure] / pairs; }
+
+    public double getMeanB(int measure) { return sumB[measure] / pairs; }
+
+    /**
+     * Mean difference B - A of a measure (index in {@link #MEASURES})
+     */
+    public double getMeanDifference(int measure) { return sumD[measure] / pairs; }
+
+    private static double variance(double sum, double sum2, int k) {
+        return k > 1 ? (sum2 - sum * sum / k) / (k - 1) : Double.NaN;
+    }
+
+    /**
+     * Half-width of the confidence interval of the mean difference, with paired runs
+     */
+    public double getPairedHalfWidth(int measure) {
+        return Z * Math.sqrt(variance(sumD[measure], sumD2[measure], pairs) / pairs);
+    }
+
+    /**
+     * Half-width of the confidence interval of the mean difference, had the runs been independent
+     */
+    public double getIndependentHalfWidth(int measure) {
+        return Z * Math.sqrt((variance(sumA[measure], sumA2[measure], pairs)
+                + variance(sumB[measure], sumB2[measure], pairs)) / pairs);
+    }
+
+    private static double[] measures(Simulation S) {
+        Coalescence C = new Coalescence(S);
+        ArrayList<Integer> men = C.getCpMen().getN();
+        ArrayList<Integer> women = C.getCpWomen().getN();
+        return new double[]{S.getPopulationSize(),
+                men.isEmpty() ? 0 : men.get(men.size() - 1), women.isEmpty() ? 0 : women.get(women.size() - 1)};
+    }
+
+    private Simulation create(double[] parameters, long seed) {
+        Simulation S = new Simulation(parameters[0], parameters[1], parameters[2], parameters[3], parameters[4]);
+        S.useCommonRandomNumbers(seed);
+        return S;
+    }
+
+    /**
+     * Runs both variants with common random numbers.
+     *
+     * @param seed seed of the pair
+     */
+    public void runPair(long seed) {
+        Simulation A = create(parametersA, seed);
+        A.simulate(n, Tmax);
+        Simulation B = create(parametersB, seed);
+        B.simulate(n, Tmax);
+
+        double[] a = measures(A);
+        double[] b = measures(B);
+        pairs++;
+        for (int m = 0; m < MEASURES.length; m++) {
+            double d = b[m] - a[m];
+            sumA[m] += a[m];
+            sumB[m] += b[m];
+            sumD[m] += d;
+            sumA2[m] += a[m] * a[m];
+            sumB2[m] += b[m] * b[m];
+            sumD2[m] += d * d;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 6 || args.length > 7) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.PairedRuns n Tmax replicates parameter valueA valueB [seed]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int replicates = Integer.parseInt(args[2]);
+        String parameter = args[3];
+        double valueA = Double.parseDouble(args[4]);
+        double valueB = Double.parseDouble(args[5]);
+        Random seeds = new Random(args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime());
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+        if (replicates <= 1) { throw new IllegalArgumentException("Illegal number of replicates. Must be at least 2."); }
+
+        PairedRuns P = new PairedRuns(n, Tmax, parameter, valueA, valueB);
+        for (int rep = 0; rep < replicates; rep++) {
+            P.runPair(seeds.nextLong());
+        }
+
+        System.out.println("A: " + parameter + " = " + args[4] + ", B: " + parameter + " = " + args[5] + ", " + replicates + " pairs");
+        for (int m = 0; m < MEASURES.length; m++) {
+            double paired = P.getPairedHalfWidth(m);
+            double independent = P.getIndependentHalfWidth(m);
+            System.out.println(String.format("[%s: A = %.1f, B = %.1f, B - A = %.1f +/- %.1f (paired), +/- %.1f (independent runs)%s]",
+                    MEASURES[m], P.getMeanA(m), P.getMeanB(m), P.getMeanDifference(m), paired, independent,
+                    paired > 0 ? String.format(", %.1f times fewer replicates", independent * independent / (paired * paired)) : ""));
+        }
+    }
+}
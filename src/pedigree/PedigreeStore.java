@@ -0,0 +1,183 @@
+package pedigree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Pedigree of all Sims ever born, stored outside the Java heap as fixed-width records:
+ * mother, father, birth time, death time and sex. The identifier of a Sim is the index of
+ * its record, a 64-bit integer. Records are appended in chunks of direct buffers, or of
+ * memory-mapped regions of a file, so the garbage collector never sees them.
+ *
+ * Used by {@link Simulation#setStore}: the simulation then keeps only the living Sims on the
+ * heap, without references to their parents, and {@link Coalescence} follows the lines
+ * through the store.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.PedigreeStore n Tmax [store_file] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class PedigreeStore implements AutoCloseable {
+
+    // Record layout (bytes)
+    private static final int MOTHER = 0;
+    private static final int FATHER = 8;
+    private static final int BIRTH = 16;
+    private static final int DEATH = 24;
+    private static final int SEX = 32;
+    public static final int RECORD_SIZE = 40;
+
+    // Default parameters
+    private static final int DEFAULT_CHUNK_RECORDS = 1 << 20; // 40 MB per chunk
+
+    private final int chunkRecords;
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private final FileChannel channel; // null: direct buffers
+    private final RandomAccessFile file;
+    private long size;
+
+    /**
+     * Constructor for a store in direct memory
+     */
+    public PedigreeStore() {
+        this.chunkRecords = DEFAULT_CHUNK_RECORDS;
+        this.channel = null;
+        this.file = null;
+    }
+
+    /**
+     * Constructor for a store backed by a file (overwritten)
+     *
+     * @param path file holding the records
+     * @param chunkRecords records per mapped region
+     */
+    public PedigreeStore(File path, int chunkRecords) throws IOException {
+        if (chunkRecords <= 0 || (long) chunkRecords * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal chunk size. Must be between 1 and " + Integer.MAX_VALUE / RECORD_SIZE + " records.");
+        }
+        this.chunkRecords = chunkRecords;
+        this.file = new RandomAccessFile(path, "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+    }
+
+    public PedigreeStore(File path) throws IOException {
+        this(path, DEFAULT_CHUNK_RECORDS);
+    }
+
+    /**
+     * Getters
+     */
+    public long size() { return size; }
+
+    /**
+     * Bytes reserved for the records
+     */
+    public long getFootprint() { return (long) chunks.size() * chunkRecords * RECORD_SIZE; }
+
+    private ByteBuffer chunk(long id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("No Sim with identifier " + id);
+        }
+        return chunks.get((int) (id / chunkRecords));
+    }
+
+    private int offset(long id) {
+        return (int) (id % chunkRecords) * RECORD_SIZE;
+    }
+
+    public long getMother(long id) { return chunk(id).getLong(offset(id) + MOTHER); }
+
+    public long getFather(long id) { return chunk(id).getLong(offset(id) + FATHER); }
+
+    public double getBirthTime(long id) { return chunk(id).getDouble(offset(id) + BIRTH); }
+
+    public double getDeathTime(long id) { return chunk(id).getDouble(offset(id) + DEATH); }
+
+    public Sim.Sex getSex(long id) { return chunk(id).get(offset(id) + SEX) == 0 ? Sim.Sex.F : Sim.Sex.M; }
+
+    /**
+     * Parent followed by the line of the given sex: the father for men, the mother for women
+     */
+    public long getParent(long id, Sim.Sex sex) {
+        return sex == Sim.Sex.M ? getFather(id) : getMother(id);
+    }
+
+    /**
+     * Setters
+     */
+    public void setDeathTime(long id, double death) { chunk(id).putDouble(offset(id) + DEATH, death); }
+
+    /**
+     * Appends a record.
+     *
+     * @param mother identifier of the mother, -1 for founders
+     * @param father identifier of the father, -1 for founders
+     * @return identifier of the new Sim
+     */
+    public long append(long mother, long father, double birth, double death, Sim.Sex sex) {
+        if (size == (long) chunks.size() * chunkRecords) {
+            long bytes = (long) chunkRecords * RECORD_SIZE;
+            try {
+                chunks.add(channel == null
+                        ? ByteBuffer.allocateDirect((int) bytes)
+                        : channel.map(FileChannel.MapMode.READ_WRITE, chunks.size() * bytes, bytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot extend the pedigree store", e);
+            }
+        }
+        long id = size++;
+        ByteBuffer chunk = chunks.get((int) (id / chunkRecords));
+        int offset = offset(id);
+        chunk.putLong(offset + MOTHER, mother);
+        chunk.putLong(offset + FATHER, father);
+        chunk.putDouble(offset + BIRTH, birth);
+        chunk.putDouble(offset + DEATH, death);
+        chunk.put(offset + SEX, (byte) (sex == Sim.Sex.F ? 0 : 1));
+        return id;
+    }
+
+    /**
+     * Releases the records. File-backed stores are written out and closed, but not truncated: the
+     * regions stay mapped until they are garbage collected, and truncating a mapped file is an
+     * error on some platforms. The file keeps whole chunks, the records being the first
+     * {@link #size} ones (the rest is zeros).
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            for (ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+            file.close();
+        }
+        chunks.clear();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.PedigreeStore n Tmax [store_file]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        try (PedigreeStore store = args.length > 2 ? new PedigreeStore(new File(args[2])) : new PedigreeStore()) {
+            Simulation S = new Simulation();
+            S.setStore(store);
+            S.simulate(n, Tmax);
+
+            RunResult R = new RunResult(S, new Coalescence(S));
+            Runner.printResults(R.getPopulationHistory(), R.getTimeHistory(), R.getCpMen(), R.getCpWomen());
+            System.out.println("Pedigree store: " + store.size() + " Sims, " + (store.getFootprint() >> 20) + " MB off-heap");
+        }
+    }
+}
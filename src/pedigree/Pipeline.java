@@ -0,0 +1,326 @@
+package pedigree;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pipelined execution: the simulation thread only publishes births, deaths and samples
+ * into one bounded lock-free queue per analysis stage, and each stage consumes its queue
+ * on its own thread. Enabling more analyses adds one queue insertion per event to the
+ * simulation thread, nothing more.
+ *
+ * The stages that follow the parents of the Sims ({@link LineageTracker}, {@link PedigreeExport})
+ * cannot be used with a {@link PedigreeStore}: add the stages before registering the pipeline,
+ * so that {@link Simulation#addListener} can refuse it.
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class Pipeline implements SimulationListener {
+
+    /**
+     * Message passed to the stages
+     */
+    public static class Message {
+
+        public enum Kind { Birth, Death, Sample, End }
+
+        private final Kind kind;
+        private final Sim subject;
+        private final double time;
+        private final int size;
+
+        Message(Kind kind, Sim subject, double time, int size) {
+            this.kind = kind;
+            this.subject = subject;
+            this.time = time;
+            this.size = size;
+        }
+
+        /**
+         * Getters
+         */
+        public Kind getKind() { return kind; }
+
+        public Sim getSubject() { return subject; }
+
+        public double getTime() { return time; }
+
+        public int getSize() { return size; }
+    }
+
+    /**
+     * Analysis running on its own thread
+     */
+    public static abstract class Stage {
+
+        /**
+         * Treats a message, in the order of the simulation
+         */
+        protected abstract void accept(Message M) throws IOException;
+
+        /**
+         * Called once after the last message
+         */
+        protected void finish() throws IOException { }
+
+        /**
+         * If the analysis follows the parents of the Sims (see {@link SimulationListener#needsParents})
+         */
+        public boolean needsParents() { return false; }
+
+        /**
+         * Prints the result of the analysis
+         */
+        public abstract void report(PrintStream out);
+    }
+
+    private static final Message END = new Message(Message.Kind.End, null, 0.0, 0);
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    private final ArrayList<Stage> stages = new ArrayList<>();
+    private final ArrayList<SpscQueue<Message>> queues = new ArrayList<>();
+    private final ArrayList<Thread> threads = new ArrayList<>();
+    private final ArrayList<Throwable> failures = new ArrayList<>();
+
+    /**
+     * Adds an analysis stage and starts its consumer thread.
+     *
+     * @param stage the analysis
+     */
+    public void addStage(Stage stage) {
+        final SpscQueue<Message> queue = new SpscQueue<>(QUEUE_CAPACITY);
+        Thread thread = new Thread(() -> {
+            boolean failed = false;
+            int idle = 0;
+            while (true) {
+                Message M = queue.poll();
+                if (M == null) {
+                    idle = SpscQueue.backOff(idle);
+                    continue;
+                }
+                idle = 0;
+                try {
+                    if (M == END) {
+                        if (!failed) {
+                            stage.finish();
+                        }
+                        break;
+                    } else if (!failed) {
+                        stage.accept(M);
+                    } // after a failure, keep draining so that the simulation is never blocked
+                } catch (Throwable t) {
+                    failed = true;
+                    synchronized (failures) {
+                        failures.add(t);
+                    }
+                    if (M == END) {
+                        break;
+                    }
+                }
+            }
+        }, "pipeline-" + stage.getClass().getSimpleName());
+        thread.setDaemon(true);
+        stages.add(stage);
+        queues.add(queue);
+        threads.add(thread);
+        thread.start();
+    }
+
+    public ArrayList<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * If one of the stages added so far follows the parents of the Sims
+     */
+    @Override
+    public boolean needsParents() {
+        for (Stage stage : stages) {
+            if (stage.needsParents()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void publish(Message M) {
+        for (int i = 0; i < queues.size(); i++) {
+            queues.get(i).put(M);
+        }
+    }
+
+    @Override
+    public void birth(Sim x) {
+        publish(new Message(Message.Kind.Birth, x, x.getBirthTime(), 0));
+    }
+
+    @Override
+    public void death(Sim x, double time) {
+        publish(new Message(Message.Kind.Death, x, time, 0));
+    }
+
+    @Override
+    public void sample(int time, int size) {
+        publish(new Message(Message.Kind.Sample, null, time, size));
+    }
+
+    /**
+     * Signals the end of the simulation and waits for all stages to finish.
+     */
+    public void close() throws InterruptedException {
+        publish(END);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            IllegalStateException e = new IllegalStateException("Pipeline stage failed", failures.get(0));
+            for (int i = 1; i < failures.size(); i++) {
+                e.addSuppressed(failures.get(i));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Birth and death counts, lifespans and peak population
+     */
+    public static class Statistics extends Stage {
+
+        private long births;
+        private long deaths;
+        private double lifespans; // sum over deceased Sims
+        private int population;
+        private int maxPopulation;
+
+        @Override
+        protected void accept(Message M) {
+            switch (M.getKind()) {
+                case Birth:
+                    births++;
+                    population++;
+                    maxPopulation = Math.max(maxPopulation, population);
+                    break;
+                case Death:
+                    deaths++;
+                    population--;
+                    lifespans += M.getSubject().getDeathTime() - M.getSubject().getBirthTime();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void report(PrintStream out) {
+            out.println("births " + births + "\tdeaths " + deaths + "\tmax population " + maxPopulation
+                    + "\tmean lifespan " + (deaths == 0 ? 0.0 : lifespans / deaths));
+        }
+    }
+
+    /**
+     * Writes every Sim as one line: id, mother, father, sex, birth, death
+     */
+    public static class PedigreeExport extends Stage {
+
+        private final BufferedWriter out;
+        private long written;
+
+        public PedigreeExport(Writer out) {
+            this.out = new BufferedWriter(out, 1 << 16);
+        }
+
+        private static String ident(Sim x) {
+            return x == null ? "-" : Long.toString(x.getIndent());
+        }
+
+        @Override
+        protected void accept(Message M) throws IOException {
+            if (M.getKind() == Message.Kind.Birth) {
+                Sim x = M.getSubject();
+                out.write(x.getIndent() + "\t" + ident(x.getMother()) + "\t" + ident(x.getFather()) + "\t"
+                        + x.getSex() + "\t" + x.getBirthTime() + "\t" + x.getDeathTime());
+                out.newLine();
+                written++;
+            }
+        }
+
+        @Override
+        protected void finish() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean needsParents() {
+            return true;
+        }
+
+        @Override
+        public void report(PrintStream out) {
+            out.println("pedigree export: " + written + " Sims");
+        }
+    }
+
+    /**
+     * Number of founders whose paternal (resp. maternal) line is still carried
+     * by a living man (resp. woman), updated at each birth and death.
+     */
+    public static class LineageTracker extends Stage {
+
+        private final Map<Long, Long> founder = new HashMap<>(); // living Sim -> founder of its line
+        private final Map<Long, Integer> paternal = new HashMap<>(); // founder -> living carriers
+        private final Map<Long, Integer> maternal = new HashMap<>();
+        private final ArrayList<int[]> history = new ArrayList<>(); // {time, paternal lines, maternal lines}
+
+        @Override
+        protected void accept(Message M) {
+            Sim x = M.getSubject();
+            switch (M.getKind()) {
+                case Birth: {
+                    Sim parent = x.isMale() ? x.getFather() : x.getMother();
+                    Long root = parent == null ? null : founder.get(parent.getIndent());
+                    long f = root == null ? x.getIndent() : root; // founders (and orphans) start a line
+                    founder.put(x.getIndent(), f);
+                    (x.isMale() ? paternal : maternal).merge(f, 1, Integer::sum);
+                    break;
+                }
+                case Death: {
+                    Long f = founder.remove(x.getIndent());
+                    if (f != null) {
+                        Map<Long, Integer> lines = x.isMale() ? paternal : maternal;
+                        if (lines.merge(f, -1, Integer::sum) == 0) {
+                            lines.remove(f);
+                        }
+                    }
+                    break;
+                }
+                case Sample:
+                    history.add(new int[]{(int) M.getTime(), paternal.size(), maternal.size()});
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        public ArrayList<int[]> getHistory() {
+            return history;
+        }
+
+        @Override
+        public boolean needsParents() {
+            return true;
+        }
+
+        @Override
+        public void report(PrintStream out) {
+            out.println("founder lines (t, paternal, maternal):");
+            for (int[] h : history) {
+                out.println("[t = " + h[0] + ", paternal = " + h[1] + ", maternal = " + h[2] + "]");
+            }
+        }
+    }
+}
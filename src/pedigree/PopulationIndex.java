@@ -0,0 +1,195 @@
+package pedigree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Index of the lifetimes of all Sims born in a simulation, answering who was alive at any
+ * past time. Lifetimes [birth, death) are stored as columns and registered in every time
+ * bucket they overlap; a query only scans the bucket of its time, so its cost is proportional
+ * to the population alive around that time, not to the whole history.
+ *
+ * Register it with {@link Simulation#addListener} before the simulation starts. Emigrants
+ * of an {@link IslandSimulation} stay alive in the index of the island where they were born.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.PopulationIndex n Tmax [age_width] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class PopulationIndex implements SimulationListener {
+
+    private final double bucketWidth;
+
+    // Columns, one entry per Sim in order of birth
+    private Sim[] sims;
+    private double[] birth;
+    private double[] death;
+    private int size;
+
+    // Bucket k holds the Sims alive at some time in [k*bucketWidth, (k+1)*bucketWidth)
+    private int[][] buckets;
+    private int[] bucketSize;
+
+    // Default parameters
+    private static final double DEFAULT_BUCKET_WIDTH = 50.0;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Constructors
+     */
+    public PopulationIndex() {
+        this(DEFAULT_BUCKET_WIDTH);
+    }
+
+    public PopulationIndex(double bucketWidth) {
+        if (!(bucketWidth > 0)) {
+            throw new IllegalArgumentException("Illegal bucket width. Must be positive.");
+        }
+        this.bucketWidth = bucketWidth;
+        this.sims = new Sim[INITIAL_CAPACITY];
+        this.birth = new double[INITIAL_CAPACITY];
+        this.death = new double[INITIAL_CAPACITY];
+        this.buckets = new int[16][];
+        this.bucketSize = new int[16];
+    }
+
+    /**
+     * Getters
+     */
+    public int size() { return size; }
+
+    public Sim getSim(int i) { return sims[i]; }
+
+    public double getBirthTime(int i) { return birth[i]; }
+
+    public double getDeathTime(int i) { return death[i]; }
+
+    private int bucketOf(double t) {
+        return t <= 0 ? 0 : (int) (t / bucketWidth);
+    }
+
+    private void addToBucket(int k, int i) {
+        if (k >= buckets.length) {
+            int capacity = Math.max(2 * buckets.length, k + 1);
+            buckets = Arrays.copyOf(buckets, capacity);
+            bucketSize = Arrays.copyOf(bucketSize, capacity);
+        }
+        int[] bucket = buckets[k];
+        if (bucket == null) {
+            bucket = buckets[k] = new int[16];
+        } else if (bucketSize[k] == bucket.length) {
+            bucket = buckets[k] = Arrays.copyOf(bucket, 2 * bucket.length);
+        }
+        bucket[bucketSize[k]++] = i;
+    }
+
+    @Override
+    public void birth(Sim x) {
+        if (size == sims.length) {
+            int capacity = 2 * size;
+            sims = Arrays.copyOf(sims, capacity);
+            birth = Arrays.copyOf(birth, capacity);
+            death = Arrays.copyOf(death, capacity);
+        }
+        int i = size++;
+        sims[i] = x;
+        birth[i] = x.getBirthTime();
+        death[i] = x.getDeathTime();
+        int last = death[i] > birth[i] ? bucketOf(Math.nextDown(death[i])) : bucketOf(birth[i]);
+        for (int k = bucketOf(birth[i]); k <= last; k++) {
+            addToBucket(k, i);
+        }
+    }
+
+    @Override
+    public void death(Sim x, double time) { } // death times are known at birth
+
+    @Override
+    public void sample(int time, int size) { }
+
+    private boolean alive(int i, double t) {
+        return birth[i] <= t && t < death[i];
+    }
+
+    /**
+     * Indices of the Sims alive at time t (born at or before t, dead after t)
+     */
+    public int[] aliveIndices(double t) {
+        int k = bucketOf(t);
+        if (k >= buckets.length || buckets[k] == null) {
+            return new int[0];
+        }
+        int[] bucket = buckets[k];
+        int[] alive = new int[bucketSize[k]];
+        int count = 0;
+        for (int j = 0; j < bucketSize[k]; j++) {
+            if (alive(bucket[j], t)) alive[count++] = bucket[j];
+        }
+        return Arrays.copyOf(alive, count);
+    }
+
+    /**
+     * Sims alive at time t
+     */
+    public Sim[] aliveAt(double t) {
+        int[] alive = aliveIndices(t);
+        Sim[] population = new Sim[alive.length];
+        for (int j = 0; j < alive.length; j++) {
+            population[j] = sims[alive[j]];
+        }
+        return population;
+    }
+
+    /**
+     * Number of Sims alive at time t, by sex and age class
+     *
+     * @param t time
+     * @param ageWidth width of the age classes
+     * @return counts[0][c] for women and counts[1][c] for men aged in [c*ageWidth, (c+1)*ageWidth)
+     */
+    public int[][] countBySexAndAge(double t, double ageWidth) {
+        if (!(ageWidth > 0)) {
+            throw new IllegalArgumentException("Illegal age width. Must be positive.");
+        }
+        int[] alive = aliveIndices(t);
+        int classes = 1;
+        for (int i : alive) {
+            classes = Math.max(classes, (int) ((t - birth[i]) / ageWidth) + 1);
+        }
+        int[][] counts = new int[2][classes];
+        for (int i : alive) {
+            counts[sims[i].isMale() ? 1 : 0][(int) ((t - birth[i]) / ageWidth)]++;
+        }
+        return counts;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.PopulationIndex n Tmax [age_width]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        double ageWidth = args.length > 2 ? Double.parseDouble(args[2]) : 20.0;
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        Simulation S = new Simulation();
+        PopulationIndex index = new PopulationIndex();
+        S.addListener(index);
+        S.simulate(n, Tmax);
+
+        for (int t = 0; t <= Tmax; t += 100) {
+            int[][] counts = index.countBySexAndAge(t, ageWidth);
+            ArrayList<String> classes = new ArrayList<>();
+            int women = 0;
+            int men = 0;
+            for (int c = 0; c < counts[0].length; c++) {
+                women += counts[0][c];
+                men += counts[1][c];
+                classes.add((int) (c * ageWidth) + "+: " + counts[0][c] + "/" + counts[1][c]);
+            }
+            System.out.println("[t = " + t + ", women = " + women + ", men = " + men + "]\t" + String.join("  ", classes));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package pedigree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Regression harness: runs seeded scenarios and compares their population history, coalescence
+ * points and event count with golden outputs, then checks their cost (events per second and bytes
+ * allocated per event by the simulating thread) against a stored budget. Each scenario is run twice,
+ * so that a run that does not repeat itself within one JVM also fails; the second run is measured.
+ * It also checks that {@link Kinship} completes on a population of more than 10^5 living Sims.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.RegressionHarness [-record] [directory] </code>
+ * (with -record, the golden outputs and the budget are written instead of checked;
+ * the directory defaults to regression).
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class RegressionHarness {
+
+    /**
+     * Seeded run
+     */
+    private static class Scenario {
+
+        private final String name;
+        private final int n;
+        private final int Tmax;
+        private final long seed;
+        private final double reproduction;
+        private final double fidelity;
+        private final boolean store;
+        private final double lifespanError; // 0 for exact lifespans
+
+        Scenario(String name, int n, int Tmax, long seed, double reproduction, double fidelity,
+                 boolean store, double lifespanError) {
+            this.name = name;
+            this.n = n;
+            this.Tmax = Tmax;
+            this.seed = seed;
+            this.reproduction = reproduction;
+            this.fidelity = fidelity;
+            this.store = store;
+            this.lifespanError = lifespanError;
+        }
+
+        Simulation create() {
+            Simulation S = new Simulation(0.01, 12.5, 100.0, reproduction, fidelity);
+            S.setSeed(seed);
+            if (lifespanError > 0) {
+                S.setLifespanTable(lifespanError);
+            }
+            return S;
+        }
+    }
+
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("small", 1000, 1000, 1L, 2.0, 0.9, false, 0.0),
+            new Scenario("large", 5000, 2000, 2L, 2.0, 0.9, false, 0.0),
+            new Scenario("faithless", 2000, 1500, 3L, 2.0, 0.3, false, 0.0),
+            new Scenario("store", 2000, 1500, 4L, 2.0, 0.9, true, 0.0),
+            new Scenario("table", 2000, 1500, 5L, 2.0, 0.9, false, 0.01),
+    };
+
+    // Kinship on a large population
+    private static final int KINSHIP_FOUNDERS = 100000;
+    private static final int KINSHIP_TMAX = 100;
+    private static final int KINSHIP_PAIRS = 1000;
+
+    private static final String BUDGET_FILE = "budget.properties";
+    private static final double SPEED_SLACK = 4.0; // recorded budget: measured speed / 4
+    private static final double ALLOCATION_SLACK = 1.5; // recorded budget: measured bytes * 1.5
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Measures of the last run
+    private long events;
+    private double seconds;
+    private long bytes;
+
+    /**
+     * Runs a scenario and returns its output in the golden format.
+     */
+    private String run(Scenario s) throws IOException {
+        long thread = Thread.currentThread().getId();
+        Simulation S = s.create();
+        PedigreeStore store = s.store ? new PedigreeStore() : null;
+        if (store != null) {
+            S.setStore(store);
+        }
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        S.simulate(s.n, s.Tmax);
+        Coalescence C = new Coalescence(S);
+        this.seconds = (System.nanoTime() - start) * 1e-9;
+        this.bytes = threads.getThreadAllocatedBytes(thread) - allocated;
+        this.events = S.getEventCount();
+        if (store != null) {
+            store.close();
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append("events ").append(events).append('\n');
+        RunResult R = new RunResult(S, C);
+        ArrayList<Integer> popHist = R.getPopulationHistory();
+        ArrayList<Integer> timeHist = R.getTimeHistory();
+        for (int i = 0; i < popHist.size(); i++) {
+            out.append("population ").append(timeHist.get(i)).append(' ').append(popHist.get(i)).append('\n');
+        }
+        appendPoints(out, "paternal", C.getCpMen());
+        appendPoints(out, "maternal", C.getCpWomen());
+        return out.toString();
+    }
+
+    private static void appendPoints(StringBuilder out, String name, Coalescence.CoalescencePoints cp) {
+        for (int i = 0; i < cp.getN().size(); i++) {
+            out.append(name).append(' ').append(cp.getTime().get(i)).append(' ').append(cp.getN().get(i)).append('\n');
+        }
+    }
+
+    /**
+     * Runs {@link Kinship} on a large population, sampled.
+     *
+     * @return description of the failure, null if it completes
+     */
+    private static String checkKinship() {
+        Simulation S = new Simulation();
+        S.setSeed(6L);
+        PopulationIndex index = new PopulationIndex();
+        Kinship K = new Kinship(index, 6L);
+        S.addListener(index);
+        S.addListener(K);
+        long start = System.nanoTime();
+        try {
+            S.simulate(KINSHIP_FOUNDERS, KINSHIP_TMAX);
+        } catch (OutOfMemoryError e) {
+            return "kinship: out of memory with " + S.getPopulationSize() + " living Sims";
+        }
+        int living = index.aliveAt(KINSHIP_TMAX).length;
+        System.out.println(String.format("%-10s %9d living    %10d ms  %7d memoized pairs",
+                "kinship", living, (System.nanoTime() - start) / 1000000, K.getCacheSize()));
+        if (living < KINSHIP_FOUNDERS) {
+            return "kinship: only " + living + " living Sims at t = " + KINSHIP_TMAX;
+        }
+        double[] last = K.getHistory().get(K.getHistory().size() - 1);
+        if (last[0] != KINSHIP_TMAX || Double.isNaN(last[2])) {
+            return "kinship: no mean kinship at t = " + KINSHIP_TMAX;
+        }
+        return null;
+    }
+
+    /**
+     * First line where two outputs differ
+     */
+    private static String firstDifference(String expected, String actual) {
+        String[] e = expected.split("\n");
+        String[] a = actual.split("\n");
+        for (int i = 0; i < Math.max(e.length, a.length); i++) {
+            String x = i < e.length ? e[i] : "<end>";
+            String y = i < a.length ? a[i] : "<end>";
+            if (!x.equals(y)) {
+                return "line " + (i + 1) + ": expected \"" + x + "\", got \"" + y + "\"";
+            }
+        }
+        return "identical";
+    }
+
+    /**
+     * Runs all scenarios.
+     *
+     * @param directory golden outputs and budget
+     * @param record write the golden outputs and the budget instead of checking them
+     * @return descriptions of the failures
+     */
+    public List<String> check(File directory, boolean record) throws IOException {
+        List<String> failures = new ArrayList<>();
+        Properties budget = new Properties();
+        File budgetFile = new File(directory, BUDGET_FILE);
+        if (record) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+        } else {
+            try (InputStream in = new FileInputStream(budgetFile)) {
+                budget.load(in);
+            }
+        }
+
+        for (Scenario s : SCENARIOS) {
+            String first = run(s);
+            String output = run(s);
+            double speed = events / seconds;
+            double perEvent = (double) bytes / events;
+            System.out.println(String.format("%-10s %9d events  %10.0f events/s  %7.1f bytes/event",
+                    s.name, events, speed, perEvent));
+            if (!first.equals(output)) {
+                failures.add(s.name + ": not deterministic, " + firstDifference(first, output));
+            }
+
+            File golden = new File(directory, s.name + ".golden");
+            if (record) {
+                Files.write(golden.toPath(), output.getBytes(StandardCharsets.UTF_8));
+                budget.setProperty(s.name + ".min_events_per_second", Long.toString((long) (speed / SPEED_SLACK)));
+                budget.setProperty(s.name + ".max_bytes_per_event", Long.toString((long) Math.ceil(perEvent * ALLOCATION_SLACK)));
+                continue;
+            }
+
+            String expected = new String(Files.readAllBytes(golden.toPath()), StandardCharsets.UTF_8);
+            if (!expected.equals(output)) {
+                failures.add(s.name + ": output changed, " + firstDifference(expected, output));
+            }
+            String minSpeed = budget.getProperty(s.name + ".min_events_per_second");
+            if (minSpeed != null && speed < Double.parseDouble(minSpeed)) {
+                failures.add(s.name + ": " + (long) speed + " events/s, budget " + minSpeed);
+            }
+            String maxBytes = budget.getProperty(s.name + ".max_bytes_per_event");
+            if (maxBytes != null && perEvent > Double.parseDouble(maxBytes)) {
+                failures.add(s.name + ": " + String.format("%.1f", perEvent) + " bytes/event, budget " + maxBytes);
+            }
+        }
+
+        String kinship = checkKinship();
+        if (kinship != null) {
+            failures.add(kinship);
+        }
+
+        if (record) {
+            try (OutputStream out = new FileOutputStream(budgetFile)) {
+                budget.store(out, "Cost budget of the regression scenarios");
+            }
+        }
+        return failures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean record = args.length > 0 && args[0].equals("-record");
+        int rest = record ? 1 : 0;
+        if (args.length > rest + 1) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.RegressionHarness [-record] [directory]");
+        }
+        File directory = new File(args.length > rest ? args[rest] : "regression");
+
+        List<String> failures = new RegressionHarness().check(directory, record);
+        for (String failure : failures) {
+            System.out.println("FAILED " + failure);
+        }
+        if (record) {
+            System.out.println("Recorded in " + directory);
+        } else if (failures.isEmpty()) {
+            System.out.println("All scenarios passed");
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,371 @@
+package pedigree;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Streaming aggregation of replicate runs. For each time bucket (one per century by default),
+ * keeps the running mean and variance (Welford) and P-square quantile estimates of the
+ * population size and of the numbers of paternal and maternal ancestral lines. Replicates are
+ * added as they finish and discarded: memory does not depend on the number of replicates.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.ReplicateAggregator n Tmax replicates [seed] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class ReplicateAggregator {
+
+    public static final int POPULATION = 0;
+    public static final int PATERNAL = 1;
+    public static final int MATERNAL = 2;
+    private static final String[] SERIES_NAMES = {"Population Size", "Paternal Ancestral Lines", "Maternal Ancestral Lines"};
+
+    private final int bucketWidth; // years per bucket
+    private final int buckets;
+    private final double lowerQuantile;
+    private final double upperQuantile;
+    private final double z; // standard normal quantile for the confidence interval of the mean
+    private final Accumulator[][] acc; // [series][bucket]
+    private long replicates;
+
+    // Default parameters
+    private static final int DEFAULT_BUCKET_WIDTH = 100;
+    private static final double DEFAULT_CONFIDENCE = 0.95;
+
+    /**
+     * Running statistics of one quantity in one bucket
+     */
+    static class Accumulator {
+
+        private long n;
+        private double mean;
+        private double m2; // sum of squared deviations from the mean
+        private final P2Quantile lower;
+        private final P2Quantile median;
+        private final P2Quantile upper;
+
+        Accumulator(double lowerQuantile, double upperQuantile) {
+            this.lower = new P2Quantile(lowerQuantile);
+            this.median = new P2Quantile(0.5);
+            this.upper = new P2Quantile(upperQuantile);
+        }
+
+        void add(double x) {
+            n++;
+            double delta = x - mean;
+            mean += delta / n;
+            m2 += delta * (x - mean);
+            lower.add(x);
+            median.add(x);
+            upper.add(x);
+        }
+
+        /**
+         * Merges statistics computed separately (quantile markers are merged approximately)
+         */
+        void merge(Accumulator o) {
+            if (o.n == 0) {
+                return;
+            }
+            long total = n + o.n;
+            double delta = o.mean - mean;
+            mean += delta * o.n / total;
+            m2 += o.m2 + delta * delta * n * o.n / total;
+            n = total;
+            lower.merge(o.lower);
+            median.merge(o.median);
+            upper.merge(o.upper);
+        }
+
+        double variance() {
+            return n > 1 ? m2 / (n - 1) : 0.0;
+        }
+    }
+
+    /**
+     * P-square algorithm (Jain and Chlamtac, 1985): estimate of a quantile with five markers.
+     */
+    static class P2Quantile {
+
+        private final double p;
+        private long count;
+        private final double[] q = new double[5]; // marker heights
+        private final double[] pos = new double[5]; // marker positions
+        private final double[] desired = new double[5]; // desired marker positions
+        private final double[] increment;
+
+        P2Quantile(double p) {
+            this.p = p;
+            this.increment = new double[]{0.0, p / 2.0, p, (1.0 + p) / 2.0, 1.0};
+        }
+
+        void add(double x) {
+            if (count < 5) {
+                q[(int) count++] = x;
+                if (count == 5) {
+                    Arrays.sort(q);
+                    for (int i = 0; i < 5; i++) {
+                        pos[i] = i;
+                    }
+                    desired[0] = 0.0;
+                    desired[1] = 2.0 * p;
+                    desired[2] = 4.0 * p;
+                    desired[3] = 2.0 + 2.0 * p;
+                    desired[4] = 4.0;
+                }
+                return;
+            }
+            count++;
+            int k;
+            if (x < q[0]) {
+                q[0] = x;
+                k = 0;
+            } else if (x >= q[4]) {
+                q[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= q[k + 1]) {
+                    k++;
+                }
+            }
+            for (int i = k + 1; i < 5; i++) {
+                pos[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desired[i] += increment[i];
+            }
+            for (int i = 1; i <= 3; i++) {
+                double d = desired[i] - pos[i];
+                if ((d >= 1.0 && pos[i + 1] - pos[i] > 1.0) || (d <= -1.0 && pos[i - 1] - pos[i] < -1.0)) {
+                    int s = d > 0 ? 1 : -1;
+                    double qp = q[i] + s / (pos[i + 1] - pos[i - 1])
+                            * ((pos[i] - pos[i - 1] + s) * (q[i + 1] - q[i]) / (pos[i + 1] - pos[i])
+                            + (pos[i + 1] - pos[i] - s) * (q[i] - q[i - 1]) / (pos[i] - pos[i - 1]));
+                    if (q[i - 1] < qp && qp < q[i + 1]) {
+                        q[i] = qp; // parabolic
+                    } else {
+                        q[i] = q[i] + s * (q[i + s] - q[i]) / (pos[i + s] - pos[i]); // linear
+                    }
+                    pos[i] += s;
+                }
+            }
+        }
+
+        /**
+         * Approximate merge: marker heights are averaged, weighted by the counts
+         */
+        void merge(P2Quantile o) {
+            if (o.count < 5) {
+                for (int i = 0; i < o.count; i++) {
+                    add(o.q[i]);
+                }
+                return;
+            }
+            if (count < 5) {
+                // take the other markers, then add the few values seen here
+                double[] seen = Arrays.copyOf(q, (int) count);
+                System.arraycopy(o.q, 0, q, 0, 5);
+                System.arraycopy(o.pos, 0, pos, 0, 5);
+                System.arraycopy(o.desired, 0, desired, 0, 5);
+                count = o.count;
+                for (double x : seen) {
+                    add(x);
+                }
+                return;
+            }
+            double w = o.count / (double) (count + o.count);
+            for (int i = 0; i < 5; i++) {
+                q[i] = (1.0 - w) * q[i] + w * o.q[i];
+                pos[i] += o.pos[i];
+                desired[i] += o.desired[i];
+            }
+            count += o.count;
+        }
+
+        double get() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            if (count < 5) {
+                double[] sorted = Arrays.copyOf(q, (int) count);
+                Arrays.sort(sorted);
+                return sorted[(int) Math.round(p * (count - 1))];
+            }
+            return q[2];
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param Tmax duration of the simulations
+     * @param bucketWidth years per bucket
+     * @param confidence level of the bands, for instance 0.95
+     */
+    public ReplicateAggregator(int Tmax, int bucketWidth, double confidence) {
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive");
+        }
+        if (!(confidence > 0.0 && confidence < 1.0)) {
+            throw new IllegalArgumentException("Confidence level must be between 0 and 1");
+        }
+        this.bucketWidth = bucketWidth;
+        this.buckets = Tmax / bucketWidth + 1;
+        this.lowerQuantile = (1.0 - confidence) / 2.0;
+        this.upperQuantile = 1.0 - lowerQuantile;
+        this.z = inverseNormal(upperQuantile);
+        this.acc = new Accumulator[3][buckets];
+        for (int s = 0; s < 3; s++) {
+            for (int b = 0; b < buckets; b++) {
+                acc[s][b] = new Accumulator(lowerQuantile, upperQuantile);
+            }
+        }
+    }
+
+    public ReplicateAggregator(int Tmax) {
+        this(Tmax, DEFAULT_BUCKET_WIDTH, DEFAULT_CONFIDENCE);
+    }
+
+    /**
+     * Getters
+     */
+    public synchronized long getReplicates() { return replicates; }
+
+    public int getBuckets() { return buckets; }
+
+    public int getBucketTime(int b) { return b * bucketWidth; }
+
+    public int getBucket(int time) { return time / bucketWidth; }
+
+    public synchronized double getMean(int series, int b) { return acc[series][b].mean; }
+
+    public synchronized double getVariance(int series, int b) { return acc[series][b].variance(); }
+
+    public synchronized double getLowerQuantile(int series, int b) { return acc[series][b].lower.get(); }
+
+    public synchronized double getMedian(int series, int b) { return acc[series][b].median.get(); }
+
+    public synchronized double getUpperQuantile(int series, int b) { return acc[series][b].upper.get(); }
+
+    /**
+     * Half width of the confidence interval of the mean (normal approximation)
+     */
+    public synchronized double getHalfWidth(int series, int b) {
+        Accumulator a = acc[series][b];
+        return a.n < 2 ? Double.POSITIVE_INFINITY : z * Math.sqrt(a.variance() / a.n);
+    }
+
+    /**
+     * Adds one replicate. Buckets after the extinction of the population count as size 0.
+     *
+     * @param popHist population sizes
+     * @param timeHist times of the population samples
+     * @param cpMen paternal coalescence points
+     * @param cpWomen maternal coalescence points
+     */
+    public synchronized void addReplicate(ArrayList<Integer> popHist, ArrayList<Integer> timeHist,
+                                          Coalescence.CoalescencePoints cpMen, Coalescence.CoalescencePoints cpWomen) {
+        double[] size = new double[buckets];
+        for (int i = 0; i < popHist.size(); i++) {
+            int b = timeHist.get(i) / bucketWidth;
+            if (b < buckets) {
+                size[b] = popHist.get(i); // last sample of the bucket
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            acc[POPULATION][b].add(size[b]);
+            acc[PATERNAL][b].add(cpMen.linesAt(getBucketTime(b)));
+            acc[MATERNAL][b].add(cpWomen.linesAt(getBucketTime(b)));
+        }
+        replicates++;
+    }
+
+    /**
+     * Adds the statistics of another aggregator with the same buckets
+     */
+    public synchronized void merge(ReplicateAggregator o) {
+        if (o.buckets != buckets || o.bucketWidth != bucketWidth) {
+            throw new IllegalArgumentException("Aggregators have different time buckets");
+        }
+        for (int s = 0; s < 3; s++) {
+            for (int b = 0; b < buckets; b++) {
+                acc[s][b].merge(o.acc[s][b]);
+            }
+        }
+        replicates += o.replicates;
+    }
+
+    /**
+     * Prints mean, confidence interval of the mean, and quantile bands
+     */
+    public synchronized void printBands(PrintStream out) {
+        for (int s = 0; s < 3; s++) {
+            out.print('\n');
+            out.println("------------------------------ " + SERIES_NAMES[s] + " (" + replicates + " replicates) ------------------------------");
+            out.print('\n');
+            out.println("t\tmean\t+/-\tq" + Math.round(lowerQuantile * 1000) / 1000.0
+                    + "\tmedian\tq" + Math.round(upperQuantile * 1000) / 1000.0);
+            for (int b = 0; b < buckets; b++) {
+                out.println(getBucketTime(b) + "\t" + getMean(s, b) + "\t" + getHalfWidth(s, b) + "\t"
+                        + getLowerQuantile(s, b) + "\t" + getMedian(s, b) + "\t" + getUpperQuantile(s, b));
+            }
+        }
+    }
+
+    /**
+     * Quantile of the standard normal distribution (Acklam's rational approximation,
+     * relative error below 1.2e-9).
+     *
+     * @param p probability in (0,1)
+     * @return x such that P(Z &lt;= x) = p
+     */
+    static double inverseNormal(double p) {
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00};
+        final double low = 0.02425;
+        if (p < low) {
+            double q = Math.sqrt(-2.0 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1.0);
+        }
+        if (p > 1.0 - low) {
+            return -inverseNormal(1.0 - p);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1.0);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.ReplicateAggregator n Tmax replicates [seed]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int replicates = Integer.parseInt(args[2]);
+        Random seeds = new Random(args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime());
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        ReplicateAggregator A = new ReplicateAggregator(Tmax);
+        for (int rep = 0; rep < replicates; rep++) {
+            Simulation S = new Simulation();
+            S.setSeed(seeds.nextLong());
+            S.simulate(n, Tmax);
+            RunResult R = new RunResult(S, new Coalescence(S));
+            A.addReplicate(R.getPopulationHistory(), R.getTimeHistory(), R.getCpMen(), R.getCpWomen());
+        }
+        A.printBands(System.out);
+    }
+}
@@ -0,0 +1,160 @@
+package pedigree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of run results. Each result is a file named by the SHA-256 hash of everything
+ * that determines it: n, Tmax, the model parameters, the seed and {@link Simulation#ENGINE_VERSION}.
+ * Reading a result marks it as recently used; when the files exceed the size bound, the least
+ * recently used ones are deleted.
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class ResultCache {
+
+    private static final int MAGIC = 0x50445243; // "PDRC"
+    private static final String SUFFIX = ".run";
+
+    // Default parameters
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Constructors
+     *
+     * @param directory cache directory, created if needed
+     * @param maxBytes size bound of the cached files
+     */
+    public ResultCache(File directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Illegal cache size. Must be positive.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the cache directory " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public ResultCache(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Key of a seeded run
+     *
+     * @param n number of founders
+     * @param Tmax duration of the simulation
+     * @param S simulation (for its parameters)
+     * @param seed random seed
+     * @return hexadecimal SHA-256 hash
+     */
+    public static String key(int n, double Tmax, Simulation S, long seed) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(Simulation.ENGINE_VERSION);
+            out.writeInt(n);
+            out.writeDouble(Tmax);
+            out.writeDouble(S.getAgeModel().getAccidentRate());
+            out.writeDouble(S.getAgeModel().getDeathRate());
+            out.writeDouble(S.getAgeModel().getAgeFactor());
+            out.writeDouble(S.getReproductionRate());
+            out.writeDouble(S.getFidelity());
+            out.writeInt(S.getArity());
+            out.writeLong(seed);
+            out.flush();
+
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            StringBuilder key = new StringBuilder();
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot hash the run parameters", e);
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    /**
+     * Cached result
+     *
+     * @param key key of the run
+     * @return null if the result is not in the cache
+     */
+    public synchronized RunResult get(String key) {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cached result");
+            }
+            RunResult R = RunResult.read(in);
+            file.setLastModified(System.currentTimeMillis()); // recently used
+            return R;
+        } catch (IOException e) {
+            file.delete(); // unreadable: run again
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result, then evicts the least recently used results beyond the size bound.
+     */
+    public synchronized void put(String key, RunResult R) throws IOException {
+        File tmp = File.createTempFile(key, ".tmp", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                R.write(out);
+            }
+            Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+        evict();
+    }
+
+    private void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && total > maxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package pedigree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Results of a run, as shown by {@link Runner}: population history and both coalescence curves.
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class RunResult {
+
+    private final ArrayList<Integer> populationHistory;
+    private final ArrayList<Integer> timeHistory;
+    private final Coalescence.CoalescencePoints cpMen;
+    private final Coalescence.CoalescencePoints cpWomen;
+
+    /**
+     * Constructor
+     */
+    public RunResult(ArrayList<Integer> populationHistory, ArrayList<Integer> timeHistory,
+                     Coalescence.CoalescencePoints cpMen, Coalescence.CoalescencePoints cpWomen) {
+        this.populationHistory = populationHistory;
+        this.timeHistory = timeHistory;
+        this.cpMen = cpMen;
+        this.cpWomen = cpWomen;
+    }
+
+    @SuppressWarnings("unchecked")
+    public RunResult(Simulation S, Coalescence C) {
+        this(S.getPopulationHistory(), S.getTimeHistory(), C.getCpMen(), C.getCpWomen());
+    }
+
+    /**
+     * Getters
+     */
+    public ArrayList<Integer> getPopulationHistory() { return populationHistory; }
+
+    public ArrayList<Integer> getTimeHistory() { return timeHistory; }
+
+    public Coalescence.CoalescencePoints getCpMen() { return cpMen; }
+
+    public Coalescence.CoalescencePoints getCpWomen() { return cpWomen; }
+
+    private static void writeList(DataOutput out, ArrayList<Integer> list) throws IOException {
+        out.writeInt(list.size());
+        for (int x : list) {
+            out.writeInt(x);
+        }
+    }
+
+    private static ArrayList<Integer> readList(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Corrupted run result");
+        }
+        ArrayList<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readInt());
+        }
+        return list;
+    }
+
+    private static void writePoints(DataOutput out, Coalescence.CoalescencePoints cp) throws IOException {
+        out.writeInt(cp.getInitial());
+        writeList(out, cp.getTime());
+        writeList(out, cp.getN());
+    }
+
+    private static Coalescence.CoalescencePoints readPoints(DataInput in) throws IOException {
+        Coalescence.CoalescencePoints cp = new Coalescence.CoalescencePoints();
+        cp.initial = in.readInt();
+        cp.time = readList(in);
+        cp.n = readList(in);
+        if (cp.time.size() != cp.n.size()) {
+            throw new IOException("Corrupted run result");
+        }
+        return cp;
+    }
+
+    /**
+     * Writes the results.
+     */
+    public void write(DataOutput out) throws IOException {
+        writeList(out, populationHistory);
+        writeList(out, timeHistory);
+        writePoints(out, cpMen);
+        writePoints(out, cpWomen);
+    }
+
+    /**
+     * Reads results written by {@link #write}.
+     */
+    public static RunResult read(DataInput in) throws IOException {
+        ArrayList<Integer> populationHistory = readList(in);
+        ArrayList<Integer> timeHistory = readList(in);
+        Coalescence.CoalescencePoints cpMen = readPoints(in);
+        Coalescence.CoalescencePoints cpWomen = readPoints(in);
+        return new RunResult(populationHistory, timeHistory, cpMen, cpWomen);
+    }
+}
@@ -1,47 +1,129 @@
 package pedigree;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.ArrayList;
 
 /**
  * Entry point for the simulation. Call with command-line arguments: <code> java ... pedigree.Runner n Tmax </code>
  *
+ * With <code> java ... pedigree.Runner n Tmax -pipeline [pedigree_file] </code>, statistics, founder lines
+ * and (optionally) the export of the pedigree run on other threads while the simulation runs.
+ *
+ * With <code> -seed s -cache dir </code>, the results of a seeded run are kept in a cache directory
+ * and shown without simulating when the same run is asked again.
+ *
+ * With <code> -arity a </code>, the event and population queues use a heap of arity a;
+ * <code> -arity auto </code> measures the fastest arity on this machine first (see {@link KeyedPQ#calibrate}).
+ *
  * @author Sandrine Bédard et Robin Legault
  */
 public class Runner {
 
+    private static final String USAGE = "Give parameters as command-line arguments: java ... pedigree.Runner n Tmax [-seed s] [-cache dir] [-arity a|auto] [-pipeline [pedigree_file]]";
+
     public static void main(String[] args) throws Exception{
 
-        if (args.length != 2) {
-            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.Runner n Tmax");
+        if (args.length < 2) {
+            throw new IllegalArgumentException(USAGE);
         }
 
         // Arguments entered in command-line
         int n = Integer.parseInt(args[0]);
         int Tmax = Integer.parseInt(args[1]);
+        Long seed = null;
+        String cacheDir = null;
+        String arity = null;
+        boolean pipeline = false;
+        String pedigreeFile = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                cacheDir = args[++i];
+            } else if (args[i].equals("-arity") && i + 1 < args.length) {
+                arity = args[++i];
+            } else if (args[i].equals("-pipeline")) {
+                pipeline = true;
+                if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                    pedigreeFile = args[++i];
+                }
+            } else {
+                throw new IllegalArgumentException(USAGE);
+            }
+        }
 
         // Handling exceptions
         if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
         if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+        if (cacheDir != null && seed == null) { throw new IllegalArgumentException("Only seeded runs (-seed) can be cached."); }
 
         // A) Simulation
         Simulation S = new Simulation();
+        if (seed != null) {
+            S.setSeed(seed);
+        }
+        if (arity != null) {
+            // the event queue holds about one death per living Sim, and one reproduction per woman
+            S.setArity(arity.equals("auto") ? KeyedPQ.calibrate(2 * n) : Integer.parseInt(arity));
+        }
+
+        // Results of the same run may be cached (the pipeline analyses need the simulation itself)
+        ResultCache cache = cacheDir == null || pipeline ? null : new ResultCache(new File(cacheDir));
+        String key = cache == null ? null : ResultCache.key(n, Tmax, S, seed);
+        RunResult cached = cache == null ? null : cache.get(key);
+        if (cached != null) {
+            printResults(cached.getPopulationHistory(), cached.getTimeHistory(), cached.getCpMen(), cached.getCpWomen());
+            return;
+        }
+
+        Pipeline P = null;
+        if (pipeline) {
+            P = new Pipeline();
+            P.addStage(new Pipeline.Statistics());
+            P.addStage(new Pipeline.LineageTracker());
+            if (pedigreeFile != null) {
+                P.addStage(new Pipeline.PedigreeExport(new FileWriter(pedigreeFile)));
+            }
+            S.addListener(P);
+        }
         S.simulate(n, Tmax);
 
         // B) Coalescence of ancestral lines
         Coalescence C = new Coalescence(S);
-        Coalescence.CoalescencePoints cpMen = C.getCpMen();
-        Coalescence.CoalescencePoints cpWomen = C.getCpWomen();
+        RunResult R = new RunResult(S, C);
 
         // C) Empirical study
-        // Data for population study
-        ArrayList popHist = S.getPopulationHistory();
-        ArrayList timeHist = S.getTimeHistory();
+        printResults(R.getPopulationHistory(), R.getTimeHistory(), R.getCpMen(), R.getCpWomen());
+        if (cache != null) {
+            cache.put(key, R);
+        }
+        if (P != null) {
+            P.close();
+            System.out.print('\n');
+            System.out.println("------------------------------ Pipeline Analyses ----------------------------------------");
+            System.out.print('\n');
+            for (Pipeline.Stage stage : P.getStages()) {
+                stage.report(System.out);
+            }
+        }
+    }
 
+    /**
+     * Shows the results of a simulation on terminal
+     *
+     * @param popHist population sizes
+     * @param timeHist times of the population samples
+     * @param cpMen paternal coalescence points
+     * @param cpWomen maternal coalescence points
+     */
+    static void printResults(ArrayList<Integer> popHist, ArrayList<Integer> timeHist,
+                             Coalescence.CoalescencePoints cpMen, Coalescence.CoalescencePoints cpWomen) {
         // Data for coalescence study (men and women)
-        ArrayList cpMenTimes = cpMen.getTime();
-        ArrayList cpWomenTimes = cpWomen.getTime();
-        ArrayList cpMenN = cpMen.getN();
-        ArrayList cpWomenN = cpWomen.getN();
+        ArrayList<Integer> cpMenTimes = cpMen.getTime();
+        ArrayList<Integer> cpWomenTimes = cpWomen.getTime();
+        ArrayList<Integer> cpMenN = cpMen.getN();
+        ArrayList<Integer> cpWomenN = cpWomen.getN();
 
         // D) Showing results on terminal
         System.out.print('\n');
@@ -0,0 +1,200 @@
+package pedigree;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs replicates (simulation and coalescence) in parallel waves until the estimates are precise
+ * enough, instead of a number of replicates chosen in advance.
+ *
+ * After each wave, the half-widths of the confidence intervals of the mean population size and of
+ * the mean numbers of paternal and maternal ancestral lines, at the chosen times, are compared with
+ * the requested precision (relative to the mean). While a wave is checked, the next one is already
+ * running; once the precision is reached, the replicates still running are cancelled (their
+ * simulations stop at the next interruption check, see {@link Simulation#advance}). Results are
+ * added in the order of the replicates, not of their completion, so that short runs are not
+ * favoured when stopping.
+ *
+ * Call with command-line arguments:
+ * <code> java ... pedigree.SequentialBatch n Tmax precision [threads [wave_size [max_replicates [seed [t_1 ... t_k]]]]] </code>
+ * (the times default to Tmax / 2 and Tmax).
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class SequentialBatch {
+
+    private final int n;
+    private final int Tmax;
+    private final double precision;
+    private final int[] times;
+    private final int threads;
+    private final int waveSize;
+    private final int maxReplicates;
+    private final ReplicateAggregator aggregator;
+    private int waves;
+    private int cancelled;
+
+    // Default parameters
+    private static final int MIN_REPLICATES = 10;
+    private static final int DEFAULT_MAX_REPLICATES = 10000;
+
+    /**
+     * Constructor
+     *
+     * @param n number of founders
+     * @param Tmax duration of the simulations
+     * @param precision half-width of the confidence intervals, relative to the mean
+     * @param times times where the precision is checked
+     * @param threads number of replicates run at the same time
+     * @param waveSize number of replicates between two checks
+     * @param maxReplicates number of replicates after which the batch stops anyway
+     */
+    public SequentialBatch(int n, int Tmax, double precision, int[] times, int threads, int waveSize, int maxReplicates) {
+        if (!(precision > 0)) {
+            throw new IllegalArgumentException("Illegal precision. Must be positive.");
+        }
+        for (int t : times) {
+            if (t < 0 || t > Tmax) {
+                throw new IllegalArgumentException("Illegal time " + t + ". Must be between 0 and Tmax.");
+            }
+        }
+        if (threads <= 0 || waveSize <= 0 || maxReplicates <= 0) {
+            throw new IllegalArgumentException("Illegal number of threads or replicates. Must be a positive integer.");
+        }
+        this.n = n;
+        this.Tmax = Tmax;
+        this.precision = precision;
+        this.times = times.clone();
+        this.threads = threads;
+        this.waveSize = waveSize;
+        this.maxReplicates = maxReplicates;
+        this.aggregator = new ReplicateAggregator(Tmax);
+    }
+
+    /**
+     * Getters
+     */
+    public ReplicateAggregator getAggregator() { return aggregator; }
+
+    public int getWaves() { return waves; }
+
+    public int getCancelled() { return cancelled; }
+
+    /**
+     * Largest half-width relative to the mean, over the series and the chosen times
+     */
+    public double getRelativeHalfWidth() {
+        double worst = 0.0;
+        for (int series = 0; series < 3; series++) {
+            for (int t : times) {
+                int b = aggregator.getBucket(t);
+                double halfWidth = aggregator.getHalfWidth(series, b);
+                if (halfWidth > 0) {
+                    worst = Math.max(worst, halfWidth / Math.abs(aggregator.getMean(series, b)));
+                }
+            }
+        }
+        return worst;
+    }
+
+    private boolean isPrecise() {
+        return aggregator.getReplicates() >= MIN_REPLICATES && getRelativeHalfWidth() <= precision;
+    }
+
+    private static RunResult replicate(int n, int Tmax, long seed) {
+        Simulation S = new Simulation();
+        S.setSeed(seed);
+        S.simulate(n, Tmax);
+        return new RunResult(S, new Coalescence(S));
+    }
+
+    /**
+     * Runs waves of replicates until the precision or the maximum number of replicates is reached.
+     *
+     * @param seed random seed of the replicates
+     * @return true if the precision has been reached
+     */
+    public boolean run(long seed) throws InterruptedException {
+        Random seeds = new Random(seed);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<RunResult>> running = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            // the next wave runs while the current one is checked
+            for (int w = 0; w < 2 && submitted < maxReplicates; w++) {
+                submitted += submitWave(executor, running, seeds, maxReplicates - submitted);
+            }
+            while (!running.isEmpty()) {
+                for (int i = 0; i < waveSize && !running.isEmpty(); i++) {
+                    RunResult R;
+                    try {
+                        R = running.poll().get();
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("A replicate failed", e.getCause());
+                    }
+                    aggregator.addReplicate(R.getPopulationHistory(), R.getTimeHistory(), R.getCpMen(), R.getCpWomen());
+                }
+                waves++;
+                if (isPrecise()) {
+                    return true;
+                }
+                if (submitted < maxReplicates) {
+                    submitted += submitWave(executor, running, seeds, maxReplicates - submitted);
+                }
+            }
+            return false;
+        } finally {
+            for (Future<RunResult> f : running) {
+                if (f.cancel(true)) {
+                    cancelled++;
+                }
+            }
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private int submitWave(ExecutorService executor, ArrayDeque<Future<RunResult>> running, Random seeds, int left) {
+        int k = Math.min(waveSize, left);
+        for (int i = 0; i < k; i++) {
+            final long s = seeds.nextLong();
+            running.add(executor.submit(() -> replicate(n, Tmax, s)));
+        }
+        return k;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.SequentialBatch n Tmax precision [threads [wave_size [max_replicates [seed [t_1 ... t_k]]]]]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        double precision = Double.parseDouble(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int waveSize = args.length > 4 ? Integer.parseInt(args[4]) : threads;
+        int maxReplicates = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_MAX_REPLICATES;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime();
+        int[] times = args.length > 7 ? new int[args.length - 7] : new int[]{Tmax / 2, Tmax};
+        for (int k = 7; k < args.length; k++) {
+            times[k - 7] = Integer.parseInt(args[k]);
+        }
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+        SequentialBatch B = new SequentialBatch(n, Tmax, precision, times, threads, waveSize, maxReplicates);
+        long start = System.nanoTime();
+        boolean precise = B.run(seed);
+        B.getAggregator().printBands(System.out);
+        System.out.print('\n');
+        System.out.println(String.format("%s after %d replicates in %d waves (%d cancelled), relative half-width %.4f, %d ms",
+                precise ? "Precision reached" : "Maximum number of replicates reached",
+                B.getAggregator().getReplicates(), B.getWaves(), B.getCancelled(), B.getRelativeHalfWidth(),
+                (System.nanoTime() - start) / 1000000));
+    }
+}
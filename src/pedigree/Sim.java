@@ -1,6 +1,7 @@
 package pedigree;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class representing a person.
@@ -13,7 +14,7 @@ public class Sim implements Comparable<Sim> {
 
     private final static Random RDM = new Random();
 
-    private static int NEXT_SIM_IDX = 0;
+    private static final AtomicLong NEXT_SIM_IDX = new AtomicLong(); // shared by concurrent simulations
     public static double MIN_MATING_AGE_F = 16.0;
     public static double MIN_MATING_AGE_M = 16.0;
     public static double MAX_MATING_AGE_F = 50.0; // Janet Jackson
@@ -34,12 +35,15 @@ public class Sim implements Comparable<Sim> {
 
     public enum Sex {F, M};
 
-    private final int sim_ident;
+    private final long sim_ident;
     private double birthtime;
     private double deathtime;
     private Sim mother;
     private Sim father;
     private Sim mate;
+    private int deme; // subpopulation where the Sim lives
+    private int epoch; // number of migrations: events scheduled before the last one are stale
+    private int genome = -1; // slot in the arena of a GenomeModel, -1 if none
 
     private Sex sex;
 
@@ -60,10 +64,10 @@ public class Sim implements Comparable<Sim> {
         this.deathtime = Double.POSITIVE_INFINITY;
         this.sex = sex;
 
-        this.sim_ident = NEXT_SIM_IDX++;
+        this.sim_ident = NEXT_SIM_IDX.getAndIncrement();
     }
 
-    public Sim(Sim mother, Sim father, double birth, double death, Sex sex, int idx) {
+    public Sim(Sim mother, Sim father, double birth, double death, Sex sex, long idx) {
         this.mother = mother;
         this.father = father;
         this.birthtime = birth;
@@ -78,7 +82,7 @@ public class Sim implements Comparable<Sim> {
      */
     public Sex getSex() { return sex; }
 
-    public int getIndent() { return this.sim_ident; }
+    public long getIndent() { return this.sim_ident; }
 
     public double getBirthTime() { return birthtime; }
 
@@ -90,6 +94,12 @@ public class Sim implements Comparable<Sim> {
 
     public Sim getMate() { return mate; }
 
+    public int getDeme() { return deme; }
+
+    public int getEpoch() { return epoch; }
+
+    public int getGenome() { return genome; }
+
     private static String getIdentString(Sim sim) {
         return sim==null?"":"sim."+sim.sim_ident+"/"+sim.sex;
     }
@@ -101,6 +111,12 @@ public class Sim implements Comparable<Sim> {
 
     public void setDeath(double death) { this.deathtime = death; }
 
+    public void setDeme(int deme) { this.deme = deme; }
+
+    public void setEpoch(int epoch) { this.epoch = epoch; }
+
+    public void setGenome(int genome) { this.genome = genome; }
+
     /**
      * Test methods
      */
@@ -139,8 +155,17 @@ public class Sim implements Comparable<Sim> {
      * @return random sex
      */
     public static Sex randomSex() {
+        return randomSex(RDM);
+    }
+
+    /**
+     * To get a random sex from a given generator (reproducible simulations)
+     * @param RND random number generator
+     * @return random sex
+     */
+    public static Sex randomSex(Random RND) {
 
-        int random = RDM.nextInt(2);
+        int random = RND.nextInt(2);
         if (random == 0) {
             return Sex.F;
         } else {
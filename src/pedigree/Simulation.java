@@ -1,7 +1,10 @@
 package pedigree;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
 
 import pedigree.Event.Type;
 
@@ -13,32 +16,55 @@ import pedigree.Event.Type;
 public class Simulation {
 
     private final AgeModel ageModel; // includes 3 parameters: accident_rate, death_rate and age_factor
-    private final PQ<Event> eventQ;
-    private final PQ<Sim> womenQ;
-    private final PQ<Sim> menQ;
+    private KeyedPQ<Event> eventQ; // min heap, ordering by time of event
+    private KeyedPQ<Sim> womenQ; // min heaps, ordering by death time
+    private KeyedPQ<Sim> menQ;
     private final Random RND;
+    // Random streams of the lifespans, waiting times, sexes and mate choices (all RND by default)
+    private Random lifespanRND;
+    private Random waitingRND;
+    private Random sexRND;
+    private Random mateRND;
     private final double r; // 4th parameter: rate of reproduction
     private final double fidelity; // 5th parameter: fidelity
     private double currentTime;
+    private long events; // number of events treated
+    private int deme; // index of this subpopulation (island model)
+
+    // Pre-filled random values (lifespans and waiting times until next reproduction)
+    private final double[] lifespans = new double[BUFFER_SIZE];
+    private final double[] waitingTimes = new double[BUFFER_SIZE];
+    private int lifespanIdx = BUFFER_SIZE;
+    private int waitingTimeIdx = BUFFER_SIZE;
+    private LifespanTable lifespanTable; // null for exact sampling
+    private PedigreeStore store; // null: Sims keep references to their parents
+    private long nextId = -1; // next identifier of a Sim, -1 for the counter shared by all simulations
+
+    private final ArrayList<SimulationListener> listeners = new ArrayList<>();
 
     // For the empirical study
     private int nextCentury;
     private ArrayList<Integer> populationHistory;
     private ArrayList<Integer> timeHistory;
 
+    // Version of the simulation rules: change it when seeded runs give different results
+    public static final int ENGINE_VERSION = 1;
+
     // Default parameters
     private static final double DEFAULT_FIDELITY = 0.9;
     private static final double REPRODUCTION = 2.0;
+    private static final int BUFFER_SIZE = 1024;
+    private static final long INTERRUPT_CHECK_MASK = (1 << 12) - 1; // interruption checked every 4096 events
+    private static final int DEFAULT_ARITY = 4; // the seeded runs depend on it (positions in menQ)
 
     /**
      * Basic constructor
      */
     public Simulation() {
         this.ageModel = new AgeModel();
-        this.eventQ = new PQ<>(4, PQ.Type.MIN); // min heap, ordering by currentTime of event
-        this.womenQ = new PQ<>(4, PQ.Type.MIN);
-        this.menQ = new PQ<>(4, PQ.Type.MIN);
+        setArity(DEFAULT_ARITY);
         this.RND = new Random();
+        singleStream();
         this.fidelity = DEFAULT_FIDELITY;
         this.r = REPRODUCTION / ageModel.expectedParenthoodSpan(Sim.MIN_MATING_AGE_F, Sim.MAX_MATING_AGE_F);
         this.populationHistory = new ArrayList();
@@ -51,10 +77,9 @@ public class Simulation {
      */
     public Simulation(double accident_rate, double death_rate, double age_scale, double reproduction, double fidelity) {
         this.ageModel = new AgeModel(accident_rate, death_rate, age_scale);
-        this.eventQ = new PQ<>(4, PQ.Type.MIN); // min heap, ordering by currentTime of event
-        this.womenQ = new PQ<>(4, PQ.Type.MIN);
-        this.menQ = new PQ<>(4, PQ.Type.MIN);
+        setArity(DEFAULT_ARITY);
         this.RND = new Random();
+        singleStream();
         this.fidelity = fidelity;
         this.r = reproduction / ageModel.expectedParenthoodSpan(Sim.MIN_MATING_AGE_F, Sim.MAX_MATING_AGE_F);
         this.populationHistory = new ArrayList();
@@ -62,6 +87,51 @@ public class Simulation {
         this.nextCentury = 0;
     }
 
+    /**
+     * Copy of the current state of a simulation, which continues with its own random numbers
+     * (see {@link #fork}). Listeners are not copied.
+     */
+    private Simulation(Simulation S, long seed) {
+        if (S.store != null) {
+            throw new IllegalStateException("A simulation with a pedigree store cannot be copied");
+        }
+        this.ageModel = S.ageModel;
+        this.lifespanTable = S.lifespanTable;
+        this.RND = new Random(seed);
+        singleStream();
+        this.r = S.r;
+        this.fidelity = S.fidelity;
+        this.currentTime = S.currentTime;
+        this.events = S.events;
+        this.deme = S.deme;
+        this.nextCentury = S.nextCentury;
+        this.populationHistory = new ArrayList<>(S.populationHistory);
+        this.timeHistory = new ArrayList<>(S.timeHistory);
+
+        Map<Sim, Sim> copies = new IdentityHashMap<>();
+        this.menQ = S.menQ.copy(x -> copy(x, copies));
+        this.womenQ = S.womenQ.copy(x -> copy(x, copies));
+        this.eventQ = S.eventQ.copy(E -> new Event(copy(E.getSubject(), copies), E.getType(), E.getTime(), E.getEpoch()));
+    }
+
+    /**
+     * Copy of a living or unborn Sim, with the same identifier and parents, and a copy of the mate
+     */
+    private static Sim copy(Sim x, Map<Sim, Sim> copies) {
+        if (x == null) {
+            return null;
+        }
+        Sim y = copies.get(x);
+        if (y == null) {
+            y = new Sim(x.getMother(), x.getFather(), x.getBirthTime(), x.getDeathTime(), x.getSex(), x.getIndent());
+            y.setDeme(x.getDeme());
+            y.setEpoch(x.getEpoch());
+            copies.put(x, y);
+            y.setMate(copy(x.getMate(), copies));
+        }
+        return y;
+    }
+
     /**
      * Getters
      */
@@ -91,6 +161,186 @@ public class Simulation {
         return this.timeHistory;
     }
 
+    public int getPopulationSize() {
+        return this.menQ.size() + this.womenQ.size();
+    }
+
+    public double getCurrentTime() {
+        return this.currentTime;
+    }
+
+    public long getEventCount() {
+        return this.events;
+    }
+
+    public AgeModel getAgeModel() {
+        return this.ageModel;
+    }
+
+    public double getReproductionRate() {
+        return this.r;
+    }
+
+    public double getFidelity() {
+        return this.fidelity;
+    }
+
+    public PedigreeStore getStore() {
+        return this.store;
+    }
+
+    public int getArity() {
+        return this.eventQ.getArity();
+    }
+
+    /**
+     * Setters
+     */
+    public void setSeed(long seed) {
+        RND.setSeed(seed);
+        singleStream();
+        // discard values drawn with the previous seed
+        this.lifespanIdx = BUFFER_SIZE;
+        this.waitingTimeIdx = BUFFER_SIZE;
+    }
+
+    /**
+     * Draws the lifespans, the waiting times between reproductions, the sexes and the mate choices
+     * from four separate random streams, seeded from one seed. Two simulations with different
+     * parameters and the same seed then use the same random numbers for the same purpose:
+     * the k-th lifespan, the k-th waiting time, etc. are drawn from the same uniforms, so the
+     * difference between their results has a much lower variance than between independent runs.
+     * {@link #setSeed} goes back to a single stream.
+     *
+     * @param seed random seed of the streams
+     */
+    public void useCommonRandomNumbers(long seed) {
+        Random seeds = new Random(seed);
+        this.lifespanRND = new Random(seeds.nextLong());
+        this.waitingRND = new Random(seeds.nextLong());
+        this.sexRND = new Random(seeds.nextLong());
+        this.mateRND = new Random(seeds.nextLong());
+        this.lifespanIdx = BUFFER_SIZE;
+        this.waitingTimeIdx = BUFFER_SIZE;
+    }
+
+    private void singleStream() {
+        this.lifespanRND = RND;
+        this.waitingRND = RND;
+        this.sexRND = RND;
+        this.mateRND = RND;
+    }
+
+    /**
+     * Records the pedigree in an off-heap store instead of parent references.
+     * Sims are then identified by their record in the store, and dead Sims can be collected.
+     * Must be called before the founders are generated.
+     *
+     * @param store pedigree store, not shared with other simulations
+     */
+    public void setStore(PedigreeStore store) {
+        if (!eventQ.isEmpty() || getPopulationSize() > 0) {
+            throw new IllegalStateException("The pedigree store must be set before the simulation starts");
+        }
+        for (SimulationListener listener : listeners) {
+            if (store != null && listener.needsParents()) {
+                throw new IllegalStateException("A listener follows the parents of the Sims: not usable with a pedigree store");
+            }
+        }
+        this.store = store;
+    }
+
+    /**
+     * Changes the arity of the event and population queues (see {@link KeyedPQ#calibrate}).
+     * Fathers are drawn by their position in the queue of men, so a seeded run
+     * gives a different (equally valid) result with another arity.
+     * Must be called before the founders are generated.
+     *
+     * @param arity number of children per node
+     */
+    public void setArity(int arity) {
+        if (eventQ != null && (!eventQ.isEmpty() || getPopulationSize() > 0)) {
+            throw new IllegalStateException("The arity must be set before the simulation starts");
+        }
+        this.eventQ = new KeyedPQ<>(arity, PQ.Type.MIN);
+        this.womenQ = new KeyedPQ<>(arity, PQ.Type.MIN);
+        this.menQ = new KeyedPQ<>(arity, PQ.Type.MIN);
+    }
+
+    /**
+     * Numbers the Sims of this simulation from a given identifier, instead of the counter shared
+     * by all simulations (whose values depend on the scheduling of concurrent simulations).
+     *
+     * @param first identifier of the next Sim
+     */
+    void setFirstId(long first) {
+        this.nextId = first;
+    }
+
+    void setDeme(int deme) {
+        this.deme = deme;
+    }
+
+    /**
+     * Registers a listener notified of reproductions, births, deaths and samples
+     */
+    public void addListener(SimulationListener listener) {
+        if (store != null && listener.needsParents()) {
+            throw new IllegalStateException("This listener follows the parents of the Sims: not usable with a pedigree store");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Uses a precomputed inverse distribution function for lifespans
+     * instead of the exact Gompertz-Makeham sampling.
+     *
+     * @param max_error maximum interpolation error (in years)
+     */
+    public void setLifespanTable(double max_error) {
+        this.lifespanTable = new LifespanTable(ageModel, max_error);
+        this.lifespanIdx = BUFFER_SIZE; // discard values drawn the other way
+    }
+
+    /**
+     * Next random lifespan, refilling the buffer when exhausted
+     */
+    private double nextLifespan() {
+        if (lifespanIdx == BUFFER_SIZE) {
+            if (lifespanTable == null) {
+                ageModel.randomAges(lifespanRND, lifespans);
+            } else {
+                lifespanTable.randomAges(lifespanRND, lifespans);
+            }
+            lifespanIdx = 0;
+        }
+        return lifespans[lifespanIdx++];
+    }
+
+    /**
+     * Next random waiting time between reproductions, refilling the buffer when exhausted
+     */
+    private double nextWaitingTime() {
+        if (waitingTimeIdx == BUFFER_SIZE) {
+            AgeModel.randomWaitingTimes(waitingRND, r, waitingTimes);
+            waitingTimeIdx = 0;
+        }
+        return waitingTimes[waitingTimeIdx++];
+    }
+
+    /**
+     * Creates a Sim, registered in the pedigree store if there is one
+     */
+    private Sim newSim(Sim mother, Sim father, double birth, Sim.Sex sex) {
+        if (store == null) {
+            return nextId < 0 ? new Sim(mother, father, birth, sex)
+                    : new Sim(mother, father, birth, Double.POSITIVE_INFINITY, sex, nextId++);
+        }
+        long id = store.append(mother == null ? -1 : mother.getIndent(), father == null ? -1 : father.getIndent(),
+                birth, Double.POSITIVE_INFINITY, sex);
+        return new Sim(null, null, birth, Double.POSITIVE_INFINITY, sex, id);
+    }
+
     /**
      * Sets the time of the next reproduction
      *
@@ -100,9 +350,9 @@ public class Simulation {
         if (x.isMale()) {
             return;
         }
-        double waitingTime = AgeModel.randomWaitingTime(RND, r);
-        Event reproduction = new Event(x, Type.Reproduction, currentTime + waitingTime);
-        eventQ.insert(reproduction);
+        double waitingTime = nextWaitingTime();
+        Event reproduction = new Event(x, Type.Reproduction, currentTime + waitingTime, x.getEpoch());
+        eventQ.insert(reproduction, reproduction.getTime());
     }
 
     /**
@@ -115,20 +365,26 @@ public class Simulation {
         Sim x = E.getSubject();
         double birthTime = x.getBirthTime();
 
-        double lifespan = ageModel.randomAge(RND);
+        double lifespan = nextLifespan();
         double deathTime = birthTime + lifespan;
         Event death = new Event(x, Type.Death, deathTime);
         x.setDeath(deathTime);
-        eventQ.insert(death);
+        if (store != null) {
+            store.setDeathTime(x.getIndent(), deathTime);
+        }
+        eventQ.insert(death, deathTime);
         //[n2]
         if (x.isFemale()) {
             nextReproduction(x);
         }
         //[n3]
         if (x.isFemale()) {
-            womenQ.insert(x);
+            womenQ.insert(x, deathTime);
         } else {
-            menQ.insert(x);
+            menQ.insert(x, deathTime);
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).birth(x);
         }
     }
 
@@ -136,11 +392,17 @@ public class Simulation {
      * Removes all dead Sims from the population
      */
     private void death() {
-        while (!menQ.isEmpty() && menQ.peek().getDeathTime() <= currentTime) {
-            menQ.delete();
+        while (!menQ.isEmpty() && menQ.peekKey() <= currentTime) {
+            Sim x = menQ.delete();
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).death(x, currentTime);
+            }
         }
-        while (!womenQ.isEmpty() && womenQ.peek().getDeathTime() <= currentTime) {
-            womenQ.delete();
+        while (!womenQ.isEmpty() && womenQ.peekKey() <= currentTime) {
+            Sim x = womenQ.delete();
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).death(x, currentTime);
+            }
         }
     }
 
@@ -159,7 +421,7 @@ public class Simulation {
             Sim z = x.getMate();
 
             // [p1.1]
-            if (RND.nextDouble() < fidelity) {
+            if (mateRND.nextDouble() < fidelity) {
                 return z;
             } // [p1.2]
             else {
@@ -177,7 +439,7 @@ public class Simulation {
                 }
 
                 while (true) { //select a new mate (different from z)
-                    Sim y = menQ.getElement(RND.nextInt(menQ.size()));
+                    Sim y = menQ.getElement(mateRND.nextInt(menQ.size()));
                     if (!y.equals(x.getMate()) && y.isMatingAge(currentTime)) {
                         return y;
                     }
@@ -186,10 +448,10 @@ public class Simulation {
         }
         // [p2]
         while (true) { //select a mate
-            Sim y = menQ.getElement(RND.nextInt(menQ.size()));
+            Sim y = menQ.getElement(mateRND.nextInt(menQ.size()));
             if (!y.isInARelationship(currentTime)) {
                 return y;
-            } else if (RND.nextDouble() > fidelity) {
+            } else if (mateRND.nextDouble() > fidelity) {
                 return y;
             }
         }
@@ -198,22 +460,30 @@ public class Simulation {
     /**
      * Handles the reproduction between a female sim and her partner
      *
-     * @param x female sim
+     * @param E reproduction of a female sim
      */
-    private void reproduction(Sim x) {
+    private void reproduction(Event E) {
+        Sim x = E.getSubject();
         //[r1]
         if (!x.isAlive(currentTime)) {
             return;
         }
+        if (E.getEpoch() != x.getEpoch()) {
+            return; // scheduled before she migrated: her reproductions are now scheduled by immigrate
+        }
         //[r2]
         if (x.isMatingAge(currentTime)) {
             Sim y = selectFather(x);
             if (y != null) {
                 y.setMate(x);
                 x.setMate(y);
-                Sim child = new Sim(x, y, currentTime, Sim.randomSex());
+                Sim child = newSim(x, y, currentTime, Sim.randomSex(sexRND));
+                child.setDeme(deme);
+                for (int i = 0; i < listeners.size(); i++) {
+                    listeners.get(i).reproduction(x, y, child);
+                }
                 Event birth = new Event(child, Type.Birth, currentTime);
-                eventQ.insert(birth);
+                eventQ.insert(birth, currentTime);
             }
         }
         //[r3]
@@ -226,6 +496,7 @@ public class Simulation {
      * @param E event to handled
      */
     public void treatEvent(Event E) {
+        events++;
         if (E.getTime() > this.nextCentury) {
             // Save the population size at a certain time (once per century)
             // Used in the empirical study
@@ -233,7 +504,7 @@ public class Simulation {
         }
         Type eventType = E.getType();
         if (eventType.equals(Type.Reproduction)) {
-            reproduction(E.getSubject());
+            reproduction(E);
         } else if (eventType.equals(Type.Death)) {
             death();
         } else if (eventType.equals(Type.Birth)) {
@@ -248,9 +519,49 @@ public class Simulation {
      */
     public void generateFounders(int n) {
         for (int i = 0; i < n; i++) {
-            Sim founder = new Sim(Sim.randomSex());
+            Sim founder = newSim(null, null, 0.0, Sim.randomSex(sexRND));
+            founder.setDeme(deme);
             Event birth = new Event(founder, Type.Birth, 0);
-            eventQ.insert(birth);
+            eventQ.insert(birth, 0);
+        }
+    }
+
+    /**
+     * Removes a random living Sim from the population (emigration).
+     * Her or his partnership is dissolved, and her reproductions scheduled here become stale.
+     *
+     * @param rnd random number generator for the choice
+     * @return the emigrant, or null if the population is empty
+     */
+    Sim emigrate(Random rnd) {
+        int size = getPopulationSize();
+        if (size == 0) {
+            return null;
+        }
+        int i = rnd.nextInt(size);
+        Sim x = i < menQ.size() ? menQ.remove(i) : womenQ.remove(i - menQ.size());
+        x.setEpoch(x.getEpoch() + 1); // her pending reproductions here are stale
+        Sim mate = x.getMate();
+        if (mate != null && mate.getMate() == x) {
+            mate.setMate(null);
+        }
+        x.setMate(null);
+        return x;
+    }
+
+    /**
+     * Adds a living Sim coming from another subpopulation (immigration).
+     *
+     * @param x immigrant
+     */
+    void immigrate(Sim x) {
+        x.setDeme(deme);
+        eventQ.insert(new Event(x, Type.Death, x.getDeathTime()), x.getDeathTime());
+        if (x.isFemale()) {
+            womenQ.insert(x, x.getDeathTime());
+            nextReproduction(x);
+        } else {
+            menQ.insert(x, x.getDeathTime());
         }
     }
 
@@ -262,6 +573,9 @@ public class Simulation {
         this.timeHistory.add((int)currentTime);
         this.populationHistory.add(this.menQ.size() + this.womenQ.size());
         nextCentury += 100;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).sample((int) currentTime, this.menQ.size() + this.womenQ.size());
+        }
     }
 
     /**
@@ -275,15 +589,74 @@ public class Simulation {
         // Creates the founding sims
         generateFounders(n);
 
-        while (!eventQ.isEmpty()) {
+        advance(Tmax);
+        if (!eventQ.isEmpty()) {
+            currentTime = eventQ.peekKey();
+            saveSample(); // stop at Tmax
+        }
+    }
+
+    /**
+     * Copies the simulation in its current state: the copy continues independently,
+     * with random numbers from the given seed. The Sims of the two simulations are distinct
+     * objects but share their ancestors. Listeners are not copied, and a simulation with a
+     * pedigree store cannot be copied.
+     *
+     * @param seed random seed of the copy
+     * @return the copy
+     */
+    public Simulation fork(long seed) {
+        return new Simulation(this, seed);
+    }
+
+    /**
+     * Treats events by order of priority up to a given time, while the population size
+     * stays strictly between two bounds.
+     *
+     * @param until time of the last event to treat
+     * @param low lower bound of the population size
+     * @param high upper bound of the population size
+     * @return population size when stopped
+     */
+    int advanceWhile(double until, int low, int high) {
+        while (!eventQ.isEmpty() && eventQ.peekKey() <= until) {
             Event E = eventQ.delete(); // next event
             currentTime = E.getTime();
-
-            if (currentTime > Tmax) {
-                saveSample();
-                break; // stop at Tmax
+            treatEvent(E);
+            checkInterrupted();
+            int size = getPopulationSize();
+            if (size <= low || size >= high) {
+                return size;
             }
+        }
+        currentTime = Math.max(currentTime, until);
+        return getPopulationSize();
+    }
+
+    /**
+     * Stops the simulation if its thread has been interrupted (for instance, a cancelled replicate)
+     *
+     * @throws CancellationException if interrupted; the interruption status is kept
+     */
+    private void checkInterrupted() {
+        if ((events & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Simulation interrupted at t = " + currentTime);
+        }
+    }
+
+    /**
+     * Treats events by order of priority up to a given time.
+     * The simulation stops with a {@link CancellationException} if its thread is interrupted.
+     *
+     * @param until time of the last event to treat
+     */
+    void advance(double until) {
+        while (!eventQ.isEmpty() && eventQ.peekKey() <= until) {
+            Event E = eventQ.delete(); // next event
+            currentTime = E.getTime();
             treatEvent(E);
+            checkInterrupted();
         }
+        currentTime = Math.max(currentTime, until);
     }
 }
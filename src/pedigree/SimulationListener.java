@@ -0,0 +1,48 @@
+package pedigree;
+
+/**
+ * Receives the events of a {@link Simulation} as they are treated, in time order.
+ * Listeners are called from the thread running the simulation.
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public interface SimulationListener {
+
+    /**
+     * A Sim is born; its death time is already set.
+     *
+     * @param x newborn
+     */
+    void birth(Sim x);
+
+    /**
+     * A woman conceives a child; its birth follows at the same time.
+     *
+     * @param mother mother
+     * @param father chosen father
+     * @param child child, not yet born
+     */
+    default void reproduction(Sim mother, Sim father, Sim child) { }
+
+    /**
+     * A Sim is removed from the population.
+     *
+     * @param x deceased
+     * @param time current time of the simulation
+     */
+    void death(Sim x, double time);
+
+    /**
+     * The population size is recorded for the empirical study.
+     *
+     * @param time time of the sample
+     * @param size population size
+     */
+    void sample(int time, int size);
+
+    /**
+     * If the listener follows the parents of the Sims: they are not kept on the heap with a
+     * {@link PedigreeStore}, so {@link Simulation} refuses such a listener with a store.
+     */
+    default boolean needsParents() { return false; }
+}
@@ -0,0 +1,111 @@
+package pedigree;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * Ring buffer with a power-of-two capacity; each side caches the other side's position
+ * and only reads the shared counter when the cached value says the queue is full (or empty).
+ *
+ * @param <T> type of the items
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class SpscQueue<T> {
+
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next position to read
+    private final AtomicLong tail = new AtomicLong(); // next position to write
+    private long cachedHead; // producer's view of head
+    private long cachedTail; // consumer's view of tail
+
+    /**
+     * Constructor
+     *
+     * @param capacity minimum number of items (rounded up to a power of 2)
+     */
+    public SpscQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Illegal queue capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an item (producer thread only)
+     *
+     * @param item the item to add
+     * @return false if the queue is full
+     */
+    public boolean offer(T item) {
+        long t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.get();
+            if (t - cachedHead > mask) {
+                return false;
+            }
+        }
+        buffer[(int) t & mask] = item;
+        tail.lazySet(t + 1); // publishes the item
+        return true;
+    }
+
+    /**
+     * Adds an item, waiting for the consumer if the queue is full (producer thread only)
+     *
+     * @param item the item to add
+     */
+    public void put(T item) {
+        int idle = 0;
+        while (!offer(item)) {
+            idle = backOff(idle);
+        }
+    }
+
+    /**
+     * Waits a little while the other side catches up: busy spinning first,
+     * then yielding, then sleeping (so that it also works on a single core).
+     *
+     * @param idle number of unsuccessful attempts so far
+     * @return idle + 1
+     */
+    public static int backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000L);
+        }
+        return idle + 1;
+    }
+
+    /**
+     * Removes the oldest item (consumer thread only)
+     *
+     * @return the item, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if (h >= cachedTail) {
+            cachedTail = tail.get();
+            if (h >= cachedTail) {
+                return null;
+            }
+        }
+        int i = (int) h & mask;
+        T item = (T) buffer[i];
+        buffer[i] = null;
+        head.lazySet(h + 1); // frees the slot
+        return item;
+    }
+}
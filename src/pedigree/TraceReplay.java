@@ -0,0 +1,229 @@
+package pedigree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replays an {@link EventTrace}: the trace is read once through memory-mapped windows into
+ * primitive arrays, in birth order, and the results are rebuilt without random numbers or
+ * priority queues. Population histories come from the sample records; the coalescence is a
+ * single scan from the youngest Sim to the oldest, since parents are born before their children.
+ *
+ * Call with command-line arguments: <code> java ... pedigree.TraceReplay [n Tmax] trace_file </code>
+ * (with n and Tmax, a simulation is first run and traced into the file).
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class TraceReplay {
+
+    private static final long WINDOW = 1L << 30; // bytes mapped at a time
+
+    // Sims in birth order
+    private int size;
+    private long[] id = new long[1024];
+    private double[] birth = new double[1024];
+    private boolean[] male = new boolean[1024];
+    private boolean[] alive = new boolean[1024];
+    private int[] mother; // positions in birth order, -1 for founders
+    private int[] father;
+
+    // Reproductions: child, mother and father identifiers
+    private int reproductions;
+    private long[] reproduction = new long[3 * 1024];
+
+    private final ArrayList<Integer> populationHistory = new ArrayList<>();
+    private final ArrayList<Integer> timeHistory = new ArrayList<>();
+
+    private final Coalescence.CoalescencePoints cpMen;
+    private final Coalescence.CoalescencePoints cpWomen;
+    private CoalescentTree treeMen;
+    private CoalescentTree treeWomen;
+    private CoalescentTree tree; // tree under construction
+
+    /**
+     * Constructor: reads the trace and rebuilds the results
+     *
+     * @param trace file written by an {@link EventTrace}
+     */
+    public TraceReplay(File trace) throws IOException {
+        long[] dead = read(trace);
+        long[] sortedIds = Arrays.copyOf(id, size);
+        Arrays.sort(sortedIds);
+        int[] position = new int[size]; // birth position of the k-th smallest identifier
+        for (int i = 0; i < size; i++) {
+            position[Arrays.binarySearch(sortedIds, id[i])] = i;
+        }
+
+        Arrays.fill(alive, 0, size, true);
+        for (long x : dead) {
+            alive[position[Arrays.binarySearch(sortedIds, x)]] = false;
+        }
+        this.mother = new int[size];
+        this.father = new int[size];
+        Arrays.fill(mother, -1);
+        Arrays.fill(father, -1);
+        for (int j = 0; j < reproductions; j++) {
+            int k = Arrays.binarySearch(sortedIds, reproduction[3 * j]);
+            if (k < 0) continue; // conceived after the end of the trace
+            int child = position[k];
+            mother[child] = position[Arrays.binarySearch(sortedIds, reproduction[3 * j + 1])];
+            father[child] = position[Arrays.binarySearch(sortedIds, reproduction[3 * j + 2])];
+        }
+        this.reproduction = null;
+
+        this.cpMen = buildCoalescence(true);
+        this.treeMen = tree;
+        this.cpWomen = buildCoalescence(false);
+        this.treeWomen = tree;
+    }
+
+    /**
+     * Getters
+     */
+    public int getBirths() { return size; }
+
+    public ArrayList<Integer> getPopulationHistory() { return populationHistory; }
+
+    public ArrayList<Integer> getTimeHistory() { return timeHistory; }
+
+    public Coalescence.CoalescencePoints getCpMen() { return cpMen; }
+
+    public Coalescence.CoalescencePoints getCpWomen() { return cpWomen; }
+
+    public CoalescentTree getTreeMen() { return treeMen; }
+
+    public CoalescentTree getTreeWomen() { return treeWomen; }
+
+    /**
+     * Reads all records.
+     *
+     * @return identifiers of the Sims removed by death
+     */
+    private long[] read(File trace) throws IOException {
+        long[] dead = new long[1024];
+        int deaths = 0;
+        try (FileChannel channel = FileChannel.open(trace.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            long base = 0;
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, length));
+            if (length < 8 || in.getInt() != EventTrace.MAGIC || in.getInt() != EventTrace.VERSION) {
+                throw new IOException("Not an event trace: " + trace);
+            }
+            while (base + in.position() < length) {
+                if (in.remaining() < EventTrace.MAX_RECORD && base + in.limit() < length) {
+                    base += in.position(); // slide the window
+                    in = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, length - base));
+                }
+                byte kind = in.get();
+                switch (kind) {
+                    case EventTrace.REPRODUCTION:
+                        in.getDouble(); // time
+                        if (3 * reproductions + 3 > reproduction.length) {
+                            reproduction = Arrays.copyOf(reproduction, 2 * reproduction.length);
+                        }
+                        reproduction[3 * reproductions + 1] = in.getLong();
+                        reproduction[3 * reproductions + 2] = in.getLong();
+                        reproduction[3 * reproductions] = in.getLong();
+                        reproductions++;
+                        break;
+                    case EventTrace.BIRTH:
+                        if (size == id.length) {
+                            int capacity = 2 * size;
+                            id = Arrays.copyOf(id, capacity);
+                            birth = Arrays.copyOf(birth, capacity);
+                            male = Arrays.copyOf(male, capacity);
+                            alive = Arrays.copyOf(alive, capacity);
+                        }
+                        birth[size] = in.getDouble();
+                        id[size] = in.getLong();
+                        in.getDouble(); // death time
+                        male[size] = in.get() == 1;
+                        size++;
+                        break;
+                    case EventTrace.DEATH:
+                        in.getDouble();
+                        if (deaths == dead.length) {
+                            dead = Arrays.copyOf(dead, 2 * deaths);
+                        }
+                        dead[deaths++] = in.getLong();
+                        break;
+                    case EventTrace.SAMPLE:
+                        timeHistory.add(in.getInt());
+                        populationHistory.add(in.getInt());
+                        break;
+                    default:
+                        throw new IOException("Corrupted event trace at byte " + (base + in.position() - 1));
+                }
+            }
+        }
+        return Arrays.copyOf(dead, deaths);
+    }
+
+    /**
+     * Coalescence of the paternal (or maternal) lines of the living Sims,
+     * scanning from the youngest to the oldest.
+     */
+    private Coalescence.CoalescencePoints buildCoalescence(boolean male) {
+        Coalescence.CoalescencePoints cp = new Coalescence.CoalescencePoints();
+        int[] parent = male ? father : mother;
+        int[] line = new int[size]; // root in the tree of the line reaching each Sim, -1 if none
+        Arrays.fill(line, -1);
+        int lines = 0;
+        this.tree = new CoalescentTree();
+        for (int i = size - 1; i >= 0; i--) {
+            if (alive[i] && this.male[i] == male) {
+                line[i] = tree.addLeaf(id[i], birth[i]);
+                lines++;
+            }
+        }
+        cp.initial = lines;
+
+        for (int i = size - 1; i >= 0; i--) {
+            int p = parent[i];
+            if (line[i] < 0 || p < 0) {
+                continue;
+            }
+            if (line[p] >= 0) {
+                lines--;
+                cp.add((int) birth[i], lines);
+                line[p] = tree.merge(line[p], line[i], birth[p]);
+            } else {
+                line[p] = line[i];
+            }
+        }
+        cp.add(0, lines); // Minimal number of lines reached
+        return cp;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 3) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.TraceReplay [n Tmax] trace_file");
+        }
+        File file = new File(args[args.length - 1]);
+        if (args.length == 3) {
+            int n = Integer.parseInt(args[0]);
+            int Tmax = Integer.parseInt(args[1]);
+
+            if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+            if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+
+            long start = System.nanoTime();
+            Simulation S = new Simulation();
+            try (EventTrace trace = new EventTrace(file)) {
+                S.addListener(trace);
+                S.simulate(n, Tmax);
+            }
+            System.out.println("simulation: " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+
+        long start = System.nanoTime();
+        TraceReplay R = new TraceReplay(file);
+        System.out.println("replay of " + R.getBirths() + " births: " + (System.nanoTime() - start) / 1000000 + " ms");
+        Runner.printResults(R.getPopulationHistory(), R.getTimeHistory(), R.getCpMen(), R.getCpWomen());
+    }
+}
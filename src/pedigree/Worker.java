@@ -0,0 +1,75 @@
+package pedigree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Worker process of a {@link WorkerPool}: claims jobs from the spool directory one at a time,
+ * runs them and writes their results, until no job is left.
+ *
+ * Started by the pool as: <code> java ... pedigree.Worker spool_dir worker_id </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class Worker {
+
+    /**
+     * Writes a result to a temporary file, then moves it atomically in place.
+     */
+    static void writeResult(File file, RunResult R) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            R.write(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static RunResult readResult(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return RunResult.read(in);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.Worker spool_dir worker_id");
+        }
+        File spool = new File(args[0]);
+        String id = args[1];
+        File jobs = new File(spool, WorkerPool.JOBS);
+        File claimed = new File(spool, WorkerPool.CLAIMED);
+        File results = new File(spool, WorkerPool.RESULTS);
+
+        while (true) {
+            File[] pending = jobs.listFiles((dir, f) -> f.endsWith(WorkerPool.JOB_SUFFIX));
+            if (pending == null || pending.length == 0) {
+                break;
+            }
+            for (File job : pending) {
+                String name = job.getName().substring(0, job.getName().length() - WorkerPool.JOB_SUFFIX.length());
+                File claim = new File(claimed, job.getName() + "." + id);
+                try {
+                    Files.move(job.toPath(), claim.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException e) {
+                    continue; // claimed by another worker
+                }
+                String line = new String(Files.readAllBytes(claim.toPath()), StandardCharsets.UTF_8);
+                long start = System.nanoTime();
+                RunResult R = WorkerPool.Job.parse(line).run();
+                writeResult(new File(results, name + WorkerPool.RESULT_SUFFIX), R);
+                Files.delete(claim.toPath());
+                System.out.println(name + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        }
+    }
+}
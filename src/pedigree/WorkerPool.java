@@ -0,0 +1,297 @@
+package pedigree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs replicate or parameter-sweep jobs in several worker JVMs ({@link Worker}), each with
+ * its own heap. Coordinator and workers share a spool directory:
+ * <ul>
+ *     <li>jobs/ holds the pending jobs, one small text file each;</li>
+ *     <li>a worker claims a job by renaming it atomically into claimed/, with its own id as suffix;</li>
+ *     <li>the result is written to results/ (also by an atomic rename), then the claim is deleted.</li>
+ * </ul>
+ * When a worker process ends, its remaining claims are put back in jobs/ and retried by another
+ * worker, at most {@link #MAX_ATTEMPTS} times. Workers get an equal share of the memory budget as
+ * maximum heap size. A spool directory serves one pool at a time; it may be reused by later
+ * batches, whose jobs replace the results of earlier jobs with the same names.
+ *
+ * Call with command-line arguments:
+ * <code> java ... pedigree.WorkerPool n Tmax replicates workers [memory_MB [spool_dir [seed]]] </code>
+ *
+ * @author Sandrine Bédard et Robin Legault
+ */
+public class WorkerPool {
+
+    /**
+     * Parameters of one run
+     */
+    public static class Job {
+
+        private final int n;
+        private final int Tmax;
+        private final long seed;
+        private final double accident_rate;
+        private final double death_rate;
+        private final double age_scale;
+        private final double reproduction;
+        private final double fidelity;
+
+        public Job(int n, int Tmax, long seed, double accident_rate, double death_rate, double age_scale,
+                   double reproduction, double fidelity) {
+            this.n = n;
+            this.Tmax = Tmax;
+            this.seed = seed;
+            this.accident_rate = accident_rate;
+            this.death_rate = death_rate;
+            this.age_scale = age_scale;
+            this.reproduction = reproduction;
+            this.fidelity = fidelity;
+        }
+
+        /**
+         * Replicate with the default parameters
+         */
+        public Job(int n, int Tmax, long seed) {
+            this(n, Tmax, seed, 0.01, 12.5, 100.0, 2.0, 0.9);
+        }
+
+        /**
+         * Runs the simulation and the coalescence.
+         */
+        public RunResult run() {
+            Simulation S = new Simulation(accident_rate, death_rate, age_scale, reproduction, fidelity);
+            S.setSeed(seed);
+            S.simulate(n, Tmax);
+            return new RunResult(S, new Coalescence(S));
+        }
+
+        @Override
+        public String toString() {
+            return n + " " + Tmax + " " + seed + " " + accident_rate + " " + death_rate + " " + age_scale
+                    + " " + reproduction + " " + fidelity;
+        }
+
+        public static Job parse(String line) {
+            String[] f = line.trim().split("\\s+");
+            if (f.length != 8) {
+                throw new IllegalArgumentException("Illegal job: " + line);
+            }
+            return new Job(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]),
+                    Double.parseDouble(f[3]), Double.parseDouble(f[4]), Double.parseDouble(f[5]),
+                    Double.parseDouble(f[6]), Double.parseDouble(f[7]));
+        }
+    }
+
+    static final String JOBS = "jobs";
+    static final String CLAIMED = "claimed";
+    static final String RESULTS = "results";
+    static final String JOB_SUFFIX = ".job";
+    static final String RESULT_SUFFIX = ".run";
+
+    public static final int MAX_ATTEMPTS = 3;
+    private static final long MIN_HEAP_MB = 64;
+    private static final long POLL_MILLIS = 50;
+
+    private final File spool;
+    private final int workers;
+    private final long heapMB;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Map<String, Integer> attempts = new HashMap<>();
+    private int restarts;
+
+    /**
+     * Constructor
+     *
+     * @param spool spool directory, created if needed
+     * @param workers number of worker processes
+     * @param memoryMB memory budget shared by the workers (MB)
+     */
+    public WorkerPool(File spool, int workers, long memoryMB) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Illegal number of workers. Must be a positive integer.");
+        }
+        this.spool = spool;
+        this.workers = workers;
+        this.heapMB = Math.max(MIN_HEAP_MB, memoryMB / workers);
+        for (String dir : new String[]{JOBS, CLAIMED, RESULTS}) {
+            File d = new File(spool, dir);
+            if (!d.isDirectory() && !d.mkdirs()) {
+                throw new IOException("Cannot create the spool directory " + d);
+            }
+        }
+    }
+
+    /**
+     * Getters
+     */
+    public long getHeapMB() { return heapMB; }
+
+    public int getRestarts() { return restarts; }
+
+    /**
+     * Adds a job to the spool. A result or claims left in the spool by an earlier batch
+     * under the same name are deleted, so that the job is run again.
+     *
+     * @param name unique name of the job (letters, digits, '-' and '_')
+     */
+    public void submit(String name, Job job) throws IOException {
+        if (!name.matches("[A-Za-z0-9_-]+") || jobs.containsKey(name)) {
+            throw new IllegalArgumentException("Illegal or duplicate job name: " + name);
+        }
+        String claimPrefix = name + JOB_SUFFIX + ".";
+        File[] stale = new File(spool, CLAIMED).listFiles((dir, f) -> f.startsWith(claimPrefix));
+        for (File claim : stale == null ? new File[0] : stale) {
+            Files.deleteIfExists(claim.toPath());
+        }
+        Files.deleteIfExists(resultFile(name).toPath());
+        Files.deleteIfExists(new File(resultFile(name).getPath() + ".tmp").toPath());
+        File tmp = new File(spool, name + ".tmp");
+        Files.write(tmp.toPath(), job.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(new File(spool, JOBS), name + JOB_SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        jobs.put(name, job);
+        attempts.put(name, 1);
+    }
+
+    private Process startWorker(int id) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-Xmx" + heapMB + "m",
+                "-cp", System.getProperty("java.class.path"),
+                Worker.class.getName(), spool.getPath(), Integer.toString(id));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File(spool, "worker-" + id + ".log"));
+        return pb.start();
+    }
+
+    private File resultFile(String name) {
+        return new File(new File(spool, RESULTS), name + RESULT_SUFFIX);
+    }
+
+    /**
+     * Puts the claims of a finished worker back in the queue.
+     *
+     * @return false if a job has been attempted too many times
+     */
+    private boolean requeue(int id) throws IOException {
+        String suffix = JOB_SUFFIX + "." + id;
+        File[] claims = new File(spool, CLAIMED).listFiles((dir, f) -> f.endsWith(suffix));
+        if (claims == null) {
+            return true;
+        }
+        boolean ok = true;
+        for (File claim : claims) {
+            String name = claim.getName().substring(0, claim.getName().length() - suffix.length());
+            if (resultFile(name).isFile()) {
+                claim.delete(); // the worker died after writing the result
+                continue;
+            }
+            int attempt = attempts.merge(name, 1, Integer::sum);
+            if (attempt > MAX_ATTEMPTS) {
+                ok = false;
+                continue;
+            }
+            Files.move(claim.toPath(), new File(new File(spool, JOBS), name + JOB_SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        return ok;
+    }
+
+    private boolean pending() {
+        String[] left = new File(spool, JOBS).list();
+        return left != null && left.length > 0;
+    }
+
+    /**
+     * Runs all submitted jobs in the worker processes.
+     *
+     * @return results by job name
+     */
+    public Map<String, RunResult> run() throws IOException, InterruptedException {
+        Process[] process = new Process[workers];
+        int nextId = 0;
+        int[] ids = new int[workers];
+        try {
+            while (true) {
+                boolean done = true;
+                for (String name : jobs.keySet()) {
+                    if (!resultFile(name).isFile()) {
+                        done = false;
+                        break;
+                    }
+                }
+                if (done) {
+                    break;
+                }
+                boolean running = false;
+                for (int w = 0; w < workers; w++) {
+                    if (process[w] != null && !process[w].isAlive()) {
+                        if (!requeue(ids[w])) {
+                            throw new IllegalStateException("A job failed " + MAX_ATTEMPTS + " times, see " + spool + "/worker-" + ids[w] + ".log");
+                        }
+                        if (process[w].exitValue() != 0) {
+                            restarts++;
+                        }
+                        process[w] = null;
+                    }
+                    if (process[w] == null && pending()) {
+                        ids[w] = nextId++;
+                        process[w] = startWorker(ids[w]);
+                    }
+                    running |= process[w] != null;
+                }
+                if (!running && !pending()) {
+                    throw new IllegalStateException("Jobs are missing from the spool " + spool);
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } finally {
+            for (Process p : process) {
+                if (p != null) p.destroy();
+            }
+        }
+
+        Map<String, RunResult> results = new LinkedHashMap<>();
+        for (String name : jobs.keySet()) {
+            results.put(name, Worker.readResult(resultFile(name)));
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || args.length > 7) {
+            throw new IllegalArgumentException("Give parameters as command-line arguments: java ... pedigree.WorkerPool n Tmax replicates workers [memory_MB [spool_dir [seed]]]");
+        }
+        int n = Integer.parseInt(args[0]);
+        int Tmax = Integer.parseInt(args[1]);
+        int replicates = Integer.parseInt(args[2]);
+        int workers = Integer.parseInt(args[3]);
+        long memoryMB = args.length > 4 ? Long.parseLong(args[4]) : Runtime.getRuntime().maxMemory() >> 20;
+        File spool = args.length > 5 ? new File(args[5]) : Files.createTempDirectory("pedigree-spool").toFile();
+        Random seeds = new Random(args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime());
+
+        if (n <= 0) { throw new IllegalArgumentException("Illegal number of founders (n). Must be a positive integer."); }
+        if (Tmax <= 0) { throw new IllegalArgumentException("Illegal maximum time (Tmax). Must be a positive integer."); }
+        if (replicates <= 0) { throw new IllegalArgumentException("Illegal number of replicates. Must be a positive integer."); }
+
+        WorkerPool pool = new WorkerPool(spool, workers, memoryMB);
+        for (int rep = 0; rep < replicates; rep++) {
+            pool.submit("rep" + rep, new Job(n, Tmax, seeds.nextLong()));
+        }
+        Map<String, RunResult> results = pool.run();
+
+        ReplicateAggregator A = new ReplicateAggregator(Tmax);
+        for (RunResult R : results.values()) {
+            A.addReplicate(R.getPopulationHistory(), R.getTimeHistory(), R.getCpMen(), R.getCpWomen());
+        }
+        System.out.println(workers + " workers with -Xmx" + pool.getHeapMB() + "m, " + pool.getRestarts()
+                + " crashed workers, spool " + spool);
+        A.printBands(System.out);
+    }
+}